@@ -1,15 +1,39 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
-import static gitlet.Repository.BLOBS_DIR;
 import static gitlet.Utils.*;
 
 /**
  * Represents the saved contents of files.
+ * <p>
+ * A blob is stored as a Codec header, its file name (string), and the contents of the file up to the end,
+ * so that it can be written and read as a stream. Blobs stored before are Java-serialized Blob objects,
+ * migrated when they are read.
+ * <p>
+ * Files of at least MIN_CHUNKED_SIZE bytes are cut into chunks by Chunker, each stored once as an object
+ * of its own named by the SHA-1 of its bytes: Codec header | bytes. Their blob, of version 3, is
+ * header | file name (string) | size (varint) | number of chunks (varint) | chunk ids (hash)...
+ * Revisions of a large file then share the chunks their edits did not touch, and are written
+ * and read a chunk at a time. The id of a blob does not depend on how it is stored.
  */
 public class Blob implements Serializable {
     String id;
@@ -19,47 +43,404 @@ public class Blob implements Serializable {
     @Serial
     private static final long serialVersionUID = 24L;
 
+    private static final int VERSION = 3;
+
+    /**
+     * Version of blobs holding their contents, blobs of VERSION list chunks instead.
+     */
+    private static final int PLAIN_VERSION = 2;
+
+    private static final int CHUNK_VERSION = 1;
+
+    /**
+     * Size of the chunks files are streamed by.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Largest file stored by storePacked, larger ones are streamed into loose objects.
+     */
+    static final long MAX_PACKED_SIZE = 1 << 20;
+
+    /**
+     * Number of files storePacked holds in memory at once.
+     */
+    static final int BATCH_SIZE = 64;
+
+    /**
+     * Smallest file stored as a list of chunks.
+     */
+    static final long MIN_CHUNKED_SIZE = MAX_PACKED_SIZE;
+
     private Blob() {
     }
 
-    Blob(Path file) {
-        this.fileName = file.getFileName().toString();
-        this.contents = readContents(file);
+    Blob(String fileName, byte[] contents) {
+        this.fileName = fileName;
+        this.contents = contents;
         this.id = sha1(fileName, contents);
     }
 
-    static Blob mergeConflict(String fileName, Blob inHEAD, Blob other) {
-        Blob newBlog = new Blob();
-        byte[] inHeadContent = inHEAD == null ? new byte[0] : inHEAD.contents;
-        byte[] otherContent = other == null ? new byte[0] : other.contents;
-        String strBuilder = "<<<<<<< HEAD\n" +
-                new String(inHeadContent, StandardCharsets.UTF_8) +
-                "=======\n" +
-                new String(otherContent, StandardCharsets.UTF_8) +
-                ">>>>>>>\n";
-        newBlog.contents = strBuilder.getBytes(StandardCharsets.UTF_8);
-        newBlog.id = sha1(newBlog.fileName, newBlog.contents);
-        return newBlog;
-    }
-
+    /**
+     * Save blob to the object store. If the blob is already stored, do nothing.
+     */
     void save() {
-        Path path = BLOBS_DIR.resolve(this.id);
-        save(path);
-    }
-
-    void save(Path path) {
-        if (!checkFileExist(path))
-            writeObject(path.toFile(), this);
+        if (contents.length >= MIN_CHUNKED_SIZE) {
+            try {
+                storeChunked(fileName, new ByteArrayInputStream(contents));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            return;
+        }
+        ObjectStore.local().write(ObjectStore.Type.BLOB, this.id, encode());
     }
 
     /**
-     * Get Blob object stored in BLOBS_DIR. Return null if there is no such file.
+     * Get Blob object stored in packs or BLOBS_DIR. Return null if there is no such blob.
      * */
     public static Blob getBlob(String id) {
-        if (id == null) return null;
-        Path path = BLOBS_DIR.resolve(id);
-        if (!checkFileExist(path))
+        if (id == null)
+            return null;
+        Blob blob = CACHE.get(id);
+        if (blob != null)
+            return blob;
+        byte[] contents = ObjectStore.local().read(ObjectStore.Type.BLOB, id);
+        if (contents == null)
             return null;
-        return readObject(path.toFile(), Blob.class);
+        blob = decode(contents);
+        blob.id = id;
+        if (Codec.isSerialized(contents)) {
+            ObjectStore.local().migrate(ObjectStore.Type.BLOB, id, blob.encode());
+        }
+        CACHE.put(id, blob);
+        return blob;
+    }
+
+    /**
+     * Blobs read in this process. A cached blob is shared, so blobs read by getBlob must not be modified.
+     */
+    private static final ObjectCache<Blob> CACHE =
+            new ObjectCache<>("blob", 64 << 20, blob -> 100L + blob.contents.length);
+
+    /**
+     * Get Blob object from its stored form, without its id.
+     */
+    static Blob decode(byte[] stored) {
+        if (Codec.isSerialized(stored)) {
+            return deserialize(stored, Blob.class);
+        }
+        try (InputStream in = new ByteArrayInputStream(stored)) {
+            Blob blob = new Blob();
+            Header header = readHeader(in);
+            blob.fileName = header.fileName;
+            if (header.chunkIds == null) {
+                blob.contents = in.readAllBytes();
+            } else {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.toIntExact(header.size));
+                writeChunks(header.chunkIds, out);
+                blob.contents = out.toByteArray();
+            }
+            return blob;
+        } catch (IOException | ArithmeticException e) {
+            throw error("Corrupted blob.");
+        }
+    }
+
+    /**
+     * Return the file name of a stored blob, without reading its chunks.
+     */
+    static String readFileName(byte[] stored) {
+        if (Codec.isSerialized(stored)) {
+            return decode(stored).fileName;
+        }
+        try {
+            return readHeader(new ByteArrayInputStream(stored)).fileName;
+        } catch (IOException e) {
+            throw error("Corrupted blob.");
+        }
+    }
+
+    /**
+     * Return ids of the chunks a stored blob is made of, none if it holds its contents.
+     */
+    static List<String> chunkIds(byte[] stored) {
+        try {
+            return chunkIds(new ByteArrayInputStream(stored));
+        } catch (IOException e) {
+            throw error("Corrupted blob.");
+        }
+    }
+
+    /**
+     * Like chunkIds(byte[]), reading the stored blob from `stored` only up to its contents.
+     */
+    static List<String> chunkIds(InputStream stored) throws IOException {
+        InputStream in = new BufferedInputStream(stored);
+        in.mark(1);
+        if (Codec.isSerialized(in.readNBytes(1))) {
+            return List.of();
+        }
+        in.reset();
+        List<String> chunkIds = readHeader(in).chunkIds;
+        return chunkIds == null ? List.of() : chunkIds;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length + fileName.length() + 8);
+        try {
+            new Codec.Writer(out).header(Codec.BLOB, PLAIN_VERSION).string(fileName);
+            out.write(contents);
+        } catch (IOException e) {
+            throw error("Internal error encoding blob.");
+        }
+        return out.toByteArray();
+    }
+
+    /* STREAMING */
+
+    /**
+     * Return the id of the blob of `file`, reading the file chunk by chunk.
+     */
+    static String hash(Path file) {
+        try {
+            return digest(file, null);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Save `file` as a blob and return its id. The file is hashed and compressed piece by piece
+     * into a temporary object, renamed to its id at the end, so it is never loaded into memory as a whole.
+     * A file of at least MIN_CHUNKED_SIZE bytes is stored as chunks.
+     */
+    static String store(Path file) {
+        String fileName = file.getFileName().toString();
+        try {
+            if (Files.size(file) >= MIN_CHUNKED_SIZE) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    return storeChunked(fileName, in);
+                }
+            }
+            try (ObjectStore.LooseWriter writer = ObjectStore.local().newLooseObject()) {
+                new Codec.Writer(writer.stream()).header(Codec.BLOB, PLAIN_VERSION).string(fileName);
+                String id = digest(file, writer.stream());
+                writer.commit(ObjectStore.Type.BLOB, id);
+                return id;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Save the contents of `in` as the chunks and blob of file `fileName`, return the id of the blob.
+     * Chunks already stored, by this file or any other, are not written again.
+     */
+    private static String storeChunked(String fileName, InputStream in) throws IOException {
+        ObjectStore store = ObjectStore.local();
+        MessageDigest md = newDigest();
+        md.update(fileName.getBytes(StandardCharsets.UTF_8));
+        List<String> chunkIds = new ArrayList<>();
+        long size = 0;
+        Chunker chunker = new Chunker(in);
+        for (byte[] chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+            md.update(chunk);
+            size += chunk.length;
+            String chunkId = sha1((Object) chunk);
+            ByteArrayOutputStream stored = new ByteArrayOutputStream(chunk.length + 3);
+            new Codec.Writer(stored).header(Codec.CHUNK, CHUNK_VERSION);
+            stored.write(chunk);
+            store.write(ObjectStore.Type.CHUNK, chunkId, stored.toByteArray());
+            chunkIds.add(chunkId);
+        }
+        String id = bytesToHex(md.digest());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(fileName.length() + 16 + 20 * chunkIds.size());
+        Codec.Writer writer = new Codec.Writer(out).header(Codec.BLOB, VERSION).string(fileName)
+                .varint(size).varint(chunkIds.size());
+        for (String chunkId : chunkIds) {
+            writer.hash(chunkId);
+        }
+        store.write(ObjectStore.Type.BLOB, id, out.toByteArray());
+        return id;
+    }
+
+    /**
+     * A blob compressed by storePacked.
+     */
+    private static class Compressed {
+        final String id;
+        /**
+         * Compressed stored form, null for a blob already stored.
+         */
+        final byte[] stored;
+
+        Compressed(String id, byte[] stored) {
+            this.id = id;
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * Save files `names` of `dir` as blobs into a single new pack, return mapping of names to blob ids.
+     * Files are read and compressed in parallel, BATCH_SIZE at a time to bound memory,
+     * so they should be at most MAX_PACKED_SIZE bytes. Blobs already stored are left out of the pack.
+     */
+    static Map<String, String> storePacked(Path dir, List<String> names) {
+        ObjectStore store = ObjectStore.local();
+        StatIndex index = StatIndex.local();
+        Compressor compressor = ObjectStore.compressor;
+        Map<String, String> ids = new TreeMap<>();
+        try {
+            PackFile.Writer writer = store.newPack();
+            for (int from = 0; from < names.size(); from += BATCH_SIZE) {
+                List<String> batch = names.subList(from, Math.min(names.size(), from + BATCH_SIZE));
+                Map<String, Compressed> blobs = TreeScanner.forEach(batch, name -> {
+                    Path file = dir.resolve(name);
+                    Blob blob = new Blob(name, readContents(file));
+                    index.update(file, blob.id);
+                    if (store.contains(ObjectStore.Type.BLOB, blob.id)) {
+                        return new Compressed(blob.id, null);
+                    }
+                    try {
+                        return new Compressed(blob.id, compressor.compress(blob.encode()));
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException(e.getMessage());
+                    }
+                });
+                for (Map.Entry<String, Compressed> blob : blobs.entrySet()) {
+                    Compressed compressed = blob.getValue();
+                    ids.put(blob.getKey(), compressed.id);
+                    if (compressed.stored == null) continue;
+                    writer.addCompressed(compressed.id, ObjectStore.Type.BLOB, compressor, compressed.stored);
+                }
+            }
+            PackFile pack = writer.finish();
+            if (pack != null) {
+                store.addPack(pack);
+            }
+        } catch (IOException e) {
+            throw error("Cannot write pack: %s", e.getMessage());
+        }
+        return ids;
+    }
+
+    /**
+     * Write the contents of blob `id` into `file`, streaming them from the object store.
+     */
+    static void writeTo(String id, Path file) {
+        Blob cached = CACHE.get(id);
+        if (cached != null) {
+            writeContents(file.toFile(), (Object) cached.contents);
+            return;
+        }
+        try (InputStream stored = ObjectStore.local().open(ObjectStore.Type.BLOB, id)) {
+            if (stored == null) {
+                throw error("Missing blob %s.", id);
+            }
+            InputStream in = new BufferedInputStream(stored);
+            in.mark(1);
+            if (Codec.isSerialized(in.readNBytes(1))) {
+                in.reset();
+                writeContents(file.toFile(), decode(in.readAllBytes()).contents);
+                return;
+            }
+            in.reset();
+            Header header = readHeader(in);
+            if (header.chunkIds == null) {
+                Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), CHUNK_SIZE)) {
+                writeChunks(header.chunkIds, out);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return SHA-1 of the name and contents of `file`, copying the contents into `out` if it is not null.
+     */
+    private static String digest(Path file, OutputStream out) throws IOException {
+        MessageDigest md = newDigest();
+        md.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+                if (out != null) {
+                    out.write(buffer, 0, n);
+                }
+            }
+        }
+        return bytesToHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /**
+     * Write the chunks `chunkIds` one after the other into `out`.
+     */
+    private static void writeChunks(List<String> chunkIds, OutputStream out) throws IOException {
+        ObjectStore store = ObjectStore.local();
+        for (String chunkId : chunkIds) {
+            byte[] stored = store.read(ObjectStore.Type.CHUNK, chunkId);
+            if (stored == null) {
+                throw error("Missing chunk %s.", chunkId);
+            }
+            try (InputStream in = new ByteArrayInputStream(stored)) {
+                new Codec.Reader(in).header(Codec.CHUNK, CHUNK_VERSION);
+                in.transferTo(out);
+            }
+        }
+    }
+
+    /**
+     * What precedes the contents of a stored blob.
+     */
+    private static class Header {
+        final String fileName;
+        final long size;
+        /**
+         * Ids of the chunks of a chunked blob, null for a blob whose contents follow the header.
+         */
+        final List<String> chunkIds;
+
+        Header(String fileName, long size, List<String> chunkIds) {
+            this.fileName = fileName;
+            this.size = size;
+            this.chunkIds = chunkIds;
+        }
+    }
+
+    /**
+     * Read the header of a stored blob, up to its contents, or to its end for a chunked blob.
+     */
+    private static Header readHeader(InputStream in) throws IOException {
+        Codec.Reader reader = new Codec.Reader(in);
+        int version = reader.header(Codec.BLOB, VERSION);
+        if (version < PLAIN_VERSION) {
+            throw error("Corrupted blob.");
+        }
+        String fileName = reader.string();
+        if (version == PLAIN_VERSION) {
+            return new Header(fileName, -1, null);
+        }
+        long size = reader.varint();
+        List<String> chunkIds = new ArrayList<>();
+        for (int i = reader.varintAsInt(); i > 0; i -= 1) {
+            chunkIds.add(reader.hash());
+        }
+        return new Header(fileName, size, chunkIds);
     }
 }
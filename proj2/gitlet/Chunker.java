@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Content-defined chunking in the manner of FastCDC: a stream is cut where a gear hash of the last
+ * bytes matches a mask, so boundaries depend on the contents around them rather than on offsets.
+ * Inserting or removing bytes in a large file only changes the chunks around the edit,
+ * the others keep their contents and ids and are stored once, see Blob.
+ * <p>
+ * Chunks are MIN_SIZE to MAX_SIZE bytes, AVERAGE_SIZE on average. No cut point is searched
+ * in the first MIN_SIZE bytes of a chunk, and the mask is harder before AVERAGE_SIZE and easier after,
+ * which narrows the spread of sizes around the average (normalized chunking). The one bits of the masks
+ * are spread over the upper bits of the hash, which depend on more of the bytes before a position.
+ * <p>
+ * The gear table is generated from a fixed seed: changing it, or any size, moves all boundaries,
+ * so that new chunks would no longer match the stored ones.
+ *
+ * @author Louis Lu
+ */
+class Chunker {
+
+    static final int MIN_SIZE = 16 << 10;
+    static final int AVERAGE_SIZE = 64 << 10;
+    static final int MAX_SIZE = 256 << 10;
+
+    private static final int AVERAGE_BITS = Integer.numberOfTrailingZeros(AVERAGE_SIZE);
+    private static final long MASK_SMALL = spreadMask(AVERAGE_BITS + 2);
+    private static final long MASK_LARGE = spreadMask(AVERAGE_BITS - 2);
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // SplitMix64
+        long state = 0x6769746c65744344L;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[2 * MAX_SIZE];
+    private int start;
+    private int end;
+    private boolean eof;
+
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Return the next chunk of the stream, or null at its end.
+     */
+    byte[] next() throws IOException {
+        if (end - start < MAX_SIZE && !eof) {
+            fill();
+        }
+        if (start == end) return null;
+        int length = cut(buffer, start, end - start);
+        byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+        start += length;
+        return chunk;
+    }
+
+    /**
+     * Move the bytes left to the front of the buffer and read until it is full or the stream ends.
+     */
+    private void fill() throws IOException {
+        System.arraycopy(buffer, start, buffer, 0, end - start);
+        end -= start;
+        start = 0;
+        while (end < buffer.length) {
+            int n = in.read(buffer, end, buffer.length - end);
+            if (n < 0) {
+                eof = true;
+                return;
+            }
+            end += n;
+        }
+    }
+
+    /**
+     * Return the length of the chunk starting at `from` in the `length` bytes of `data` from there.
+     */
+    static int cut(byte[] data, int from, int length) {
+        if (length <= MIN_SIZE) return length;
+        int limit = Math.min(length, MAX_SIZE);
+        int normal = Math.min(limit, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[from + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) return i + 1;
+        }
+        for (; i < limit; i += 1) {
+            hash = (hash << 1) + GEAR[data[from + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) return i + 1;
+        }
+        return limit;
+    }
+
+    /**
+     * Return a mask of `bits` one bits spread evenly over the upper 48 bits of a long.
+     */
+    private static long spreadMask(int bits) {
+        long mask = 0;
+        int step = 48 / bits;
+        for (int i = 0; i < bits; i += 1) {
+            mask |= 1L << (63 - i * step);
+        }
+        return mask;
+    }
+}
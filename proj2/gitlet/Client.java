@@ -0,0 +1,63 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client of Daemon: forwards its arguments to the daemon of the repository in the working directory
+ * and prints what the command printed. Without a daemon, it runs the command itself as Main would.
+ * Usage: java gitlet.Client ARGS, with ARGS as for gitlet.Main.
+ * <p>
+ * Only this class and classes of the JDK are loaded when a daemon answers.
+ *
+ * @author Louis Lu
+ */
+public class Client {
+
+    public static void main(String[] args) throws IOException {
+        Path socket = Paths.get(System.getProperty("user.dir"), Repository.GITLET_DIR_NAME, Daemon.SOCKET_FILE_NAME);
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            status = forward(channel, System.getProperty("user.dir"), args, System.out, System.err);
+        }
+        System.out.flush();
+        System.err.flush();
+        System.exit(status);
+    }
+
+    /**
+     * Send the command of `args`, run from directory `cwd`, to the daemon at the other end of `channel`,
+     * copy what it printed into `out` and `err` and return its exit status.
+     */
+    static int forward(SocketChannel channel, String cwd, String[] args, OutputStream out, OutputStream err)
+            throws IOException {
+        DataOutputStream request = new DataOutputStream(Channels.newOutputStream(channel));
+        request.writeInt(Daemon.MAGIC);
+        request.writeUTF(cwd);
+        request.writeInt(args.length);
+        for (String arg : args) {
+            request.writeUTF(arg);
+        }
+        request.flush();
+
+        DataInputStream response = new DataInputStream(Channels.newInputStream(channel));
+        int status = response.readInt();
+        out.write(response.readNBytes(response.readInt()));
+        err.write(response.readNBytes(response.readInt()));
+        return status;
+    }
+}
@@ -0,0 +1,151 @@
+package gitlet;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.Utils.*;
+
+/**
+ * Hand-written binary encoding of gitlet objects and of the repository state,
+ * replacing Java serialization, which is slow to decode and breaks whenever a field changes.
+ * Every encoded value starts with a header: "G" | kind (byte) | version (byte),
+ * followed by fields, each being one of:
+ * - varint: an unsigned number, 7 bits a byte from the least significant ones, the high bit set on all but the last byte
+ * - string: its length in bytes (varint) | its UTF-8 bytes
+ * - hash:   the 20 raw bytes of a SHA-1 id
+ * A class reading an encoded value checks the version and decodes older versions it still supports.
+ *
+ * @author Louis Lu
+ */
+class Codec {
+
+    static final int BLOB = 'B';
+    static final int COMMIT = 'C';
+    static final int STATE = 'R';
+    static final int INDEX = 'I';
+    static final int TREE = 'T';
+    static final int JOURNAL = 'J';
+    static final int CHUNK = 'K';
+
+    private static final int MAGIC = 'G';
+
+    /**
+     * First byte of a Java serialization stream, see ObjectStreamConstants.STREAM_MAGIC
+     */
+    private static final int SERIALIZED_MAGIC = 0xac;
+
+    private Codec() {
+    }
+
+    /**
+     * Return true if `encoded` was written by Java serialization rather than by a Codec.Writer.
+     */
+    static boolean isSerialized(byte[] encoded) {
+        return encoded.length > 0 && (encoded[0] & 0xff) == SERIALIZED_MAGIC;
+    }
+
+    static class Writer {
+        private final OutputStream out;
+
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        Writer header(int kind, int version) throws IOException {
+            out.write(MAGIC);
+            out.write(kind);
+            out.write(version);
+            return this;
+        }
+
+        Writer varint(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+            return this;
+        }
+
+        Writer string(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            out.write(bytes);
+            return this;
+        }
+
+        Writer hash(String id) throws IOException {
+            byte[] bytes = hexToBytes(id);
+            if (bytes == null) {
+                throw error("Internal error encoding id %s.", id);
+            }
+            out.write(bytes);
+            return this;
+        }
+    }
+
+    static class Reader {
+        private final InputStream in;
+
+        Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Read the header of a value of `kind`, return its version.
+         */
+        int header(int kind, int maxVersion) throws IOException {
+            if (read() != MAGIC || read() != kind) {
+                throw error("Corrupted gitlet object.");
+            }
+            int version = read();
+            if (version > maxVersion) {
+                throw error("Object written by a newer version of gitlet.");
+            }
+            return version;
+        }
+
+        long varint() throws IOException {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = read();
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        int varintAsInt() throws IOException {
+            return Math.toIntExact(varint());
+        }
+
+        String string() throws IOException {
+            return new String(readBytes(varintAsInt()), StandardCharsets.UTF_8);
+        }
+
+        String hash() throws IOException {
+            return bytesToHex(readBytes(UID_LENGTH / 2));
+        }
+
+        private byte[] readBytes(int length) throws IOException {
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length != length) {
+                throw new EOFException();
+            }
+            return bytes;
+        }
+
+        private int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compares encoding and decoding objects with Codec against Java serialization.
+ * Usage: java gitlet.CodecBenchmark [NUMBER OF FILES PER COMMIT] [BLOB SIZE IN BYTES]
+ * <p>
+ * A commit encoded with Codec only refers to its tree by id, and one serialized by now has no files either,
+ * so the commit rows compare the metadata alone. The files are compared in the tree rows: all nodes
+ * of the tree against the file map that commits of the oldest format serialized.
+ *
+ * @author Louis Lu
+ */
+public class CodecBenchmark {
+
+    private static final int ROUNDS = 20000;
+
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int blobSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        Random random = new Random(61);
+
+        HashMap<String, String> fileMap = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            fileMap.put("file" + i + ".txt", sha1("blob" + i));
+        }
+        Tree tree = Tree.of(fileMap);
+        Commit cmt = Commit.createCommit("benchmark commit");
+        Blob blob = new Blob("sample.txt", randomBytes(random, blobSize));
+
+        byte[] serializedMap = serialize(fileMap);
+        List<byte[]> encodedTree = tree.encodeNodes();
+        int encodedTreeSize = encodedTree.stream().mapToInt(node -> node.length).sum();
+        byte[] serializedCmt = serialize(cmt);
+        byte[] encodedCmt = cmt.encode();
+        byte[] serializedBlob = serialize(blob);
+        byte[] encodedBlob = blob.encode();
+
+        System.out.printf("%-28s %10s %12s %12s %12s%n", "", "bytes", "encode ns", "decode ns", "decode MB/s");
+        System.out.printf("------------------------------------------------------------------------------%n");
+        report("File map, serialization", serializedMap.length, time(() -> serialize(fileMap)),
+                time(() -> deserialize(serializedMap, HashMap.class)));
+        report(String.format("Tree (%d nodes), Codec", encodedTree.size()), encodedTreeSize,
+                time(tree::encodeNodes), time(() -> encodedTree.forEach(Tree::decode)));
+        report("Commit metadata, serial.", serializedCmt.length, time(() -> serialize(cmt)),
+                time(() -> deserialize(serializedCmt, Commit.class)));
+        report("Commit metadata, Codec", encodedCmt.length, time(cmt::encode),
+                time(() -> Commit.decode(encodedCmt)));
+        report("Blob, serialization", serializedBlob.length, time(() -> serialize(blob)),
+                time(() -> deserialize(serializedBlob, Blob.class)));
+        report("Blob, Codec", encodedBlob.length, time(blob::encode), time(() -> Blob.decode(encodedBlob)));
+    }
+
+    /**
+     * Return average nanoseconds taken by `operation`, after as many rounds of warming up.
+     */
+    private static double time(Runnable operation) {
+        for (int i = 0; i < ROUNDS; i += 1) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            operation.run();
+        }
+        return (double) (System.nanoTime() - start) / ROUNDS;
+    }
+
+    private static void report(String name, int bytes, double encodeNanos, double decodeNanos) {
+        System.out.printf("%-28s %10d %12.0f %12.0f %12.2f%n",
+                name, bytes, encodeNanos, decodeNanos, bytes / decodeNanos * 1e3);
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -1,9 +1,14 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
-import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Set;
 
@@ -61,18 +66,38 @@ public class Commit implements Serializable {
     private String mergedParentId;
 
     /**
-     * a mapping of file names to blob references, Key is file names, and Value is Blob id
+     * a mapping of file names to blob references, Key is file names, and Value is Blob id.
+     * Only used by Java serialization of commits saved by older versions, see readObject.
      */
     private HashMap<String, String> fileMap;
 
+    /**
+     * Tracked files, mapping file names to blob ids. Trees are immutable, so a child commit
+     * shares the tree of its parent until it changes a file.
+     */
+    private transient Tree tree;
+
+    /**
+     * Id of `tree`, which is read from the object store when first needed.
+     */
+    private transient String treeId;
+
+    /**
+     * Names of tracked files, read from the tree when first needed.
+     */
+    private transient Set<String> fileNames;
+
     /* GETTER AND SETTER */
 
     public String get(String fileName) {
-        return fileMap.get(fileName);
+        return tree().get(fileName);
     }
 
     public String put(String fileName, String BlobId) {
-        return fileMap.put(fileName, BlobId);
+        String old = tree().get(fileName);
+        tree = tree().put(fileName, BlobId);
+        fileNames = null;
+        return old;
     }
 
     public String getId() {
@@ -80,7 +105,10 @@ public class Commit implements Serializable {
     }
 
     String remove(String fileName) {
-        return fileMap.remove(fileName);
+        String old = tree().get(fileName);
+        tree = tree().remove(fileName);
+        fileNames = null;
+        return old;
     }
 
     public String getMessage() {
@@ -109,8 +137,33 @@ public class Commit implements Serializable {
         this.parentId = parentId;
     }
 
+    /**
+     * Return names of all tracked files, in order of names. The set must not be modified.
+     */
     public Set<String> getAll() {
-        return this.fileMap.keySet();
+        if (fileNames == null) {
+            fileNames = Collections.unmodifiableSet(tree().toMap().keySet());
+        }
+        return fileNames;
+    }
+
+    Tree getTree() {
+        return tree();
+    }
+
+    /**
+     * Id of the stored tree of a commit read by decode(), or null for a Java-serialized commit
+     * listing its files itself, whose tree is only in memory.
+     */
+    String getStoredTreeId() {
+        return tree == null ? treeId : null;
+    }
+
+    private Tree tree() {
+        if (tree == null) {
+            tree = Tree.load(treeId);
+        }
+        return tree;
     }
 
     /* FACTORY METHODS */
@@ -128,7 +181,7 @@ public class Commit implements Serializable {
         newCommit.parentId = null;
         newCommit.mergedParentId = null;
         newCommit.id = newCommit.createID();
-        newCommit.fileMap = new HashMap<>();
+        newCommit.tree = Tree.EMPTY;
         return newCommit;
     }
 
@@ -138,7 +191,8 @@ public class Commit implements Serializable {
      */
     static Commit createCommitAsChildOf(Commit parent, String message) {
         Commit newCommit = createCommit(message);
-        newCommit.fileMap = parent.fileMap;
+        newCommit.tree = parent.tree;
+        newCommit.treeId = parent.treeId;
         newCommit.parentId = parent.id;
         newCommit.mergedParentId = null;
         return newCommit;
@@ -155,7 +209,7 @@ public class Commit implements Serializable {
         initCommit.timestamp = new Timestamp(0).getTime();
         initCommit.parentId = null;
         initCommit.mergedParentId = null;
-        initCommit.fileMap = new HashMap<>();
+        initCommit.tree = Tree.EMPTY;
         initCommit.id = initCommit.createID();
         return initCommit;
     }
@@ -168,19 +222,107 @@ public class Commit implements Serializable {
      * Get commit object specified by `id`. If there is no such commit in file system, return null.
      */
     static Commit getCmt(String id) {
-        if (id == null || !checkFileExist(Repository.COMMITS_DIR.resolve(id)))
+        if (id == null)
             return null;
-        return readObject(Repository.COMMITS_DIR.resolve(id).toFile(), Commit.class);
+        Commit cmt = CACHE.get(id);
+        if (cmt != null)
+            return cmt;
+        byte[] contents = ObjectStore.local().read(ObjectStore.Type.COMMIT, id);
+        if (contents == null)
+            return null;
+        if (Codec.isSerialized(contents)) {
+            cmt = deserialize(contents, Commit.class);
+            cmt.tree.save();
+            ObjectStore.local().migrate(ObjectStore.Type.COMMIT, id, cmt.encode());
+        } else {
+            cmt = decode(contents);
+        }
+        CACHE.put(id, cmt);
+        return cmt;
     }
 
     /**
-     * Save commit to file system. If commit file already existed, do nothing.
+     * Commits read in this process. A cached commit is shared, so commits read by getCmt must not be modified.
+     */
+    private static final ObjectCache<Commit> CACHE = new ObjectCache<>("commit", 32 << 20, Commit::estimatedSize);
+
+    /**
+     * Rough number of bytes taken by this commit in memory.
+     */
+    private long estimatedSize() {
+        return 200 + 2L * message.length() + (fileNames == null ? 0 : 80L * fileNames.size());
+    }
+
+    /**
+     * Save commit and the parts of its tree that are not stored yet to the object store.
+     * If commit already existed, do nothing.
      */
     void save() {
-        Path path = Repository.COMMITS_DIR.resolve(this.id);
-        if (!checkFileExist(path)) {
-            writeObject(path.toFile(), this);
+        if (tree != null) tree.save();
+        ObjectStore.local().write(ObjectStore.Type.COMMIT, this.id, encode());
+        CACHE.put(this.id, this);
+    }
+
+    /* ENCODING */
+
+    private static final int VERSION = 2;
+
+    /**
+     * Encode this commit with Codec:
+     * id (hash) | timestamp (varint) | message (string) | number of parents (varint) | parent ids (hash)...
+     * | tree id (hash)
+     * The tree must be saved along with the encoded commit.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try {
+            Codec.Writer writer = new Codec.Writer(out).header(Codec.COMMIT, VERSION)
+                    .hash(id).varint(timestamp).string(message);
+            int parents = parentId == null ? 0 : (mergedParentId == null ? 1 : 2);
+            writer.varint(parents);
+            if (parents > 0) writer.hash(parentId);
+            if (parents > 1) writer.hash(mergedParentId);
+            writer.hash(tree == null ? treeId : tree.id());
+        } catch (IOException e) {
+            throw error("Internal error encoding commit.");
+        }
+        return out.toByteArray();
+    }
+
+    static Commit decode(byte[] encoded) {
+        Codec.Reader reader = new Codec.Reader(new ByteArrayInputStream(encoded));
+        Commit cmt = new Commit();
+        try {
+            if (reader.header(Codec.COMMIT, VERSION) != VERSION) {
+                throw error("Corrupted commit.");
+            }
+            cmt.id = reader.hash();
+            cmt.timestamp = reader.varint();
+            cmt.message = reader.string();
+            int parents = reader.varintAsInt();
+            cmt.parentId = parents > 0 ? reader.hash() : null;
+            cmt.mergedParentId = parents > 1 ? reader.hash() : null;
+            cmt.treeId = reader.hash();
+        } catch (IOException e) {
+            throw error("Corrupted commit.");
         }
+        return cmt;
+    }
+
+    /* JAVA SERIALIZATION OF OLDER VERSIONS */
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        tree = Tree.of(fileMap);
+        fileMap = null;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        fileMap = new HashMap<>(tree().toMap());
+        out.defaultWriteObject();
+        fileMap = null;
     }
 }
 
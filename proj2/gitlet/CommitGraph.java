@@ -0,0 +1,516 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/**
+ * The commit graph: parents, generation number and timestamp of every commit, kept in
+ * .gitlet/commit-graph so that ancestry queries never deserialize commits.
+ * The generation number of a commit is 1 for the initial commit, and 1 + the largest generation
+ * number of its parents otherwise, so a commit can only be an ancestor of commits of larger generation.
+ * <p>
+ * The file is "CGPH" | version (int) | number of sorted commits (int) | fanout (256 ints),
+ * followed by the sorted commits in ascending order of ids, then by the tail: commits added since
+ * the file was last sorted, in the order they were added. Each commit is stored as
+ * id (20 bytes) | position of first parent (int) | position of second parent (int) | generation (int) | timestamp (long)
+ * where the sorted commits come first in positions, then the tail, and -1 stands for no parent.
+ * The i-th int of the fanout is the number of sorted ids whose first byte is at most i.
+ * <p>
+ * The sorted commits are memory-mapped and looked up in place, only the tail is read into memory.
+ * Saving appends new commits to the tail, the whole file is only sorted again by compact(),
+ * on repack and gc, or when the tail grows longer than MAX_TAIL_LENGTH.
+ *
+ * @author Louis Lu
+ */
+class CommitGraph {
+
+    static final String COMMIT_GRAPH_FILE_NAME = "commit-graph";
+
+    private static final byte[] MAGIC = {'C', 'G', 'P', 'H'};
+    private static final int VERSION = 2;
+    private static final int NONE = -1;
+    private static final int HEADER_LENGTH = 12;
+    private static final int FANOUT_LENGTH = 256 * 4;
+    private static final int ID_LENGTH = UID_LENGTH / 2;
+    private static final int RECORD_LENGTH = ID_LENGTH + 4 + 4 + 4 + 8;
+
+    /**
+     * Longest tail kept when saving, beyond it the whole file is sorted again.
+     */
+    private static final int MAX_TAIL_LENGTH = 4096;
+
+    private static CommitGraph local;
+
+    private final Path file;
+
+    /**
+     * The file as mapped when read, of which only the sorted commits are used, or null if there is no file.
+     */
+    private ByteBuffer sorted;
+    private int sortedCount;
+
+    /* Commits of the tail, position sortedCount + i for the i-th one */
+    private final Map<String, Integer> tailPositions = new HashMap<>();
+    private final List<String> tailIds = new ArrayList<>();
+    private int[] parents = new int[16];
+    private int[] mergedParents = new int[16];
+    private int[] generations = new int[16];
+    private long[] timestamps = new long[16];
+
+    /**
+     * Number of commits of the tail already in the file.
+     */
+    private int savedTailLength;
+
+    private CommitGraph(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * The commit graph of the repository in CWD. A repository without commit graph, or with one
+     * of another version, gets one built from all its commits.
+     */
+    static CommitGraph local() {
+        if (local == null) {
+            local = new CommitGraph(Repository.GITLET_DIR.resolve(COMMIT_GRAPH_FILE_NAME));
+            if (!checkFileExist(local.file) || !local.read()) {
+                for (String id : ObjectStore.local().list(ObjectStore.Type.COMMIT)) {
+                    local.indexOf(id);
+                }
+            }
+        }
+        return local;
+    }
+
+    /**
+     * The commit graph of the repository in `gitletDir`, another than the one in CWD, or null if it has none
+     * it can extend. Commits added to it must have their parents in it.
+     */
+    static CommitGraph open(Path gitletDir) {
+        CommitGraph graph = new CommitGraph(gitletDir.resolve(COMMIT_GRAPH_FILE_NAME));
+        if (!checkFileExist(graph.file) || !graph.read()) return null;
+        return graph;
+    }
+
+    /**
+     * Drop the graph held in memory, so that the next call of local() reads the file again.
+     */
+    static void unload() {
+        local = null;
+    }
+
+    /**
+     * Add `cmt` to the graph, its parents must already be saved.
+     */
+    void add(Commit cmt) {
+        if (find(cmt.getId()) != NONE) return;
+        int parent = cmt.getParentId() == null ? NONE : indexOf(cmt.getParentId());
+        int mergedParent = cmt.getMergedParentId() == null ? NONE : indexOf(cmt.getMergedParentId());
+        int generation = 1 + Math.max(parent == NONE ? 0 : generationAt(parent),
+                mergedParent == NONE ? 0 : generationAt(mergedParent));
+        append(cmt.getId(), parent, mergedParent, generation, cmt.getTimestamp());
+    }
+
+    boolean contains(String id) {
+        return find(id) != NONE;
+    }
+
+    int generation(String id) {
+        return generationAt(indexOf(id));
+    }
+
+    long timestamp(String id) {
+        return timestampAt(indexOf(id));
+    }
+
+    /**
+     * Return the id of the only commit whose id starts with `prefix`, or null if there is none.
+     * Sorted commits are binary searched in the mapped file, only the tail is scanned.
+     */
+    String resolve(String prefix) {
+        prefix = prefix.toLowerCase();
+        if (prefix.length() > UID_LENGTH) return null;
+        String found = null;
+        int lo = 0;
+        int hi = sortedCount;
+        if (sortedCount > 0 && prefix.length() >= 2) {
+            int first = hexByte(prefix, 0);
+            if (first < 0) {
+                lo = hi;
+            } else {
+                lo = first == 0 ? 0 : sorted.getInt(HEADER_LENGTH + (first - 1) * 4);
+                hi = sorted.getInt(HEADER_LENGTH + first * 4);
+            }
+        }
+        int end = hi;
+        // Find the first id not below the prefix, the next one must not start with it
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareId(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < end && compareId(lo, prefix) == 0) {
+            found = idAt(lo);
+            if (lo + 1 < end && compareId(lo + 1, prefix) == 0) {
+                throw error("Ambiguous commit id %s.", prefix);
+            }
+        }
+        for (String id : tailIds) {
+            if (id.startsWith(prefix)) {
+                if (found != null) {
+                    throw error("Ambiguous commit id %s.", prefix);
+                }
+                found = id;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Return ids of the parents of commit `id`, the first parent first.
+     */
+    List<String> parents(String id) {
+        int pos = indexOf(id);
+        List<String> result = new ArrayList<>(2);
+        if (parentAt(pos) != NONE) result.add(idAt(parentAt(pos)));
+        if (mergedParentAt(pos) != NONE) result.add(idAt(mergedParentAt(pos)));
+        return result;
+    }
+
+    /**
+     * Return a latest common ancestor of commits `a` and `b`, or null if they have none.
+     * Commits are walked from `a` and `b` in decreasing order of generation, so the first commit
+     * reached from both sides cannot be an ancestor of another common ancestor, and the walk
+     * stops there without visiting older history.
+     */
+    String mergeBase(String a, String b) {
+        final int fromA = 1;
+        final int fromB = 2;
+        // Only commits reached by the walk get flags
+        Map<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (x, y) -> Integer.compare(generationAt(y), generationAt(x)));
+        int posA = indexOf(a);
+        int posB = indexOf(b);
+        flags.merge(posA, fromA, (x, y) -> x | y);
+        flags.merge(posB, fromB, (x, y) -> x | y);
+        queue.add(posA);
+        if (posB != posA) queue.add(posB);
+
+        while (!queue.isEmpty()) {
+            int pos = queue.poll();
+            int reached = flags.get(pos);
+            if (reached == (fromA | fromB)) {
+                return idAt(pos);
+            }
+            for (int parent : new int[]{parentAt(pos), mergedParentAt(pos)}) {
+                if (parent == NONE) continue;
+                int old = flags.getOrDefault(parent, 0);
+                if ((old | reached) == old) continue;
+                if (old == 0) {
+                    queue.add(parent);
+                }
+                flags.put(parent, old | reached);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true if commit `ancestor` is `id` or one of its ancestors.
+     */
+    boolean isAncestor(String ancestor, String id) {
+        return ancestor.equals(mergeBase(ancestor, id));
+    }
+
+    /**
+     * Write commits added since the graph was read into its file, appending them to the tail.
+     * The file is written whole if it does not exist yet or its tail grows too long.
+     */
+    void save() {
+        if (sorted == null || tailIds.size() > MAX_TAIL_LENGTH) {
+            compact();
+            return;
+        }
+        if (savedTailLength == tailIds.size()) return;
+
+        ByteBuffer records = ByteBuffer.allocate((tailIds.size() - savedTailLength) * RECORD_LENGTH);
+        for (int i = savedTailLength; i < tailIds.size(); i += 1) {
+            records.put(hexToBytes(tailIds.get(i)));
+            records.putInt(parents[i]).putInt(mergedParents[i]).putInt(generations[i]).putLong(timestamps[i]);
+        }
+        records.flip();
+        long end = tailStart() + (long) savedTailLength * RECORD_LENGTH;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // Drop what an interrupted save may have left past the last whole commit
+            channel.truncate(end);
+            while (records.hasRemaining()) {
+                channel.write(records, end + records.position());
+            }
+        } catch (IOException e) {
+            throw error("Cannot write %s.", COMMIT_GRAPH_FILE_NAME);
+        }
+        Journal.written(file);
+        savedTailLength = tailIds.size();
+    }
+
+    /**
+     * Write the whole graph into its file, with all commits sorted and no tail.
+     */
+    void compact() {
+        if (sorted != null && tailIds.isEmpty()) return;
+
+        // Merge the tail, sorted, into the sorted commits
+        Integer[] tailOrder = new Integer[tailIds.size()];
+        for (int i = 0; i < tailOrder.length; i += 1) {
+            tailOrder[i] = sortedCount + i;
+        }
+        Arrays.sort(tailOrder, (x, y) -> idAt(x).compareTo(idAt(y)));
+        int count = sortedCount + tailOrder.length;
+        int[] order = new int[count];
+        int[] newPositions = new int[count];
+        for (int i = 0, s = 0, t = 0; i < count; i += 1) {
+            boolean fromTail = s == sortedCount
+                    || (t < tailOrder.length && idAt(tailOrder[t]).compareTo(idAt(s)) < 0);
+            order[i] = fromTail ? tailOrder[t++] : s++;
+            newPositions[order[i]] = i;
+        }
+        int[] fanout = new int[256];
+        for (int pos : order) {
+            fanout[Integer.parseInt(idAt(pos).substring(0, 2), 16)] += 1;
+        }
+        for (int i = 1; i < fanout.length; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        try {
+            Path tempFile = Files.createTempFile(file.getParent(), COMMIT_GRAPH_FILE_NAME, null);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                for (int n : fanout) {
+                    out.writeInt(n);
+                }
+                for (int pos : order) {
+                    out.write(hexToBytes(idAt(pos)));
+                    out.writeInt(parentAt(pos) == NONE ? NONE : newPositions[parentAt(pos)]);
+                    out.writeInt(mergedParentAt(pos) == NONE ? NONE : newPositions[mergedParentAt(pos)]);
+                    out.writeInt(generationAt(pos));
+                    out.writeLong(timestampAt(pos));
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Journal.written(file);
+        } catch (IOException e) {
+            throw error("Cannot write %s.", COMMIT_GRAPH_FILE_NAME);
+        }
+        tailPositions.clear();
+        tailIds.clear();
+        read();
+    }
+
+    /**
+     * Map the file and read its tail. Return false, reading nothing, if the file is of another version,
+     * which is only a cache of the commits and is written again whole by the next save().
+     */
+    private boolean read() {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw error("Cannot read %s.", COMMIT_GRAPH_FILE_NAME);
+        }
+        if (buffer.capacity() < HEADER_LENGTH || !hasMagic(buffer)) {
+            throw error("Corrupted %s.", COMMIT_GRAPH_FILE_NAME);
+        }
+        if (buffer.getInt(4) != VERSION) return false;
+        if (buffer.capacity() < HEADER_LENGTH + FANOUT_LENGTH) {
+            throw error("Corrupted %s.", COMMIT_GRAPH_FILE_NAME);
+        }
+        sorted = buffer;
+        sortedCount = sorted.getInt(8);
+        long tailLength = (sorted.capacity() - tailStart()) / RECORD_LENGTH;
+        if (tailLength < 0) {
+            throw error("Corrupted %s.", COMMIT_GRAPH_FILE_NAME);
+        }
+        for (int i = 0; i < tailLength; i += 1) {
+            int start = tailStart() + i * RECORD_LENGTH;
+            append(recordId(start), sorted.getInt(start + ID_LENGTH), sorted.getInt(start + ID_LENGTH + 4),
+                    sorted.getInt(start + ID_LENGTH + 8), sorted.getLong(start + ID_LENGTH + 12));
+        }
+        savedTailLength = tailIds.size();
+        return true;
+    }
+
+    /**
+     * Return the position of commit `id`, adding it and its missing ancestors
+     * from the object store if the graph does not contain it yet.
+     */
+    private int indexOf(String id) {
+        int pos = find(id);
+        if (pos != NONE) return pos;
+
+        // Add missing ancestors first, without recursion as history can be long
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (contains(top)) {
+                stack.pop();
+                continue;
+            }
+            Commit cmt = Commit.getCmt(top);
+            if (cmt == null) {
+                throw error("No commit with that id exists.");
+            }
+            boolean ready = true;
+            for (String parent : new String[]{cmt.getParentId(), cmt.getMergedParentId()}) {
+                if (parent != null && !contains(parent)) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                add(cmt);
+            }
+        }
+        return find(id);
+    }
+
+    /**
+     * Return the position of commit `id`, or NONE if the graph does not contain it.
+     */
+    private int find(String id) {
+        Integer pos = tailPositions.get(id);
+        if (pos != null) return pos;
+        if (sortedCount == 0 || id.length() != UID_LENGTH) return NONE;
+        int first = hexByte(id, 0);
+        if (first < 0) return NONE;
+        int lo = first == 0 ? 0 : sorted.getInt(HEADER_LENGTH + (first - 1) * 4);
+        int hi = sorted.getInt(HEADER_LENGTH + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return NONE;
+    }
+
+    private void append(String id, int parent, int mergedParent, int generation, long timestamp) {
+        int i = tailIds.size();
+        if (i == parents.length) {
+            parents = Arrays.copyOf(parents, i * 2);
+            mergedParents = Arrays.copyOf(mergedParents, i * 2);
+            generations = Arrays.copyOf(generations, i * 2);
+            timestamps = Arrays.copyOf(timestamps, i * 2);
+        }
+        tailIds.add(id);
+        tailPositions.put(id, sortedCount + i);
+        parents[i] = parent;
+        mergedParents[i] = mergedParent;
+        generations[i] = generation;
+        timestamps[i] = timestamp;
+    }
+
+    /* COMMITS BY POSITION */
+
+    private String idAt(int pos) {
+        return pos < sortedCount ? recordId(recordStart(pos)) : tailIds.get(pos - sortedCount);
+    }
+
+    private int parentAt(int pos) {
+        return pos < sortedCount ? sorted.getInt(recordStart(pos) + ID_LENGTH) : parents[pos - sortedCount];
+    }
+
+    private int mergedParentAt(int pos) {
+        return pos < sortedCount ? sorted.getInt(recordStart(pos) + ID_LENGTH + 4)
+                : mergedParents[pos - sortedCount];
+    }
+
+    private int generationAt(int pos) {
+        return pos < sortedCount ? sorted.getInt(recordStart(pos) + ID_LENGTH + 8)
+                : generations[pos - sortedCount];
+    }
+
+    private long timestampAt(int pos) {
+        return pos < sortedCount ? sorted.getLong(recordStart(pos) + ID_LENGTH + 12)
+                : timestamps[pos - sortedCount];
+    }
+
+    /**
+     * Compare the first digits of the id at `pos`, as many as `prefix` has, with hexadecimal `prefix`,
+     * comparing the raw bytes of the mapped file in place.
+     * A prefix containing non-hexadecimal digits is larger than any id.
+     */
+    private int compareId(int pos, String prefix) {
+        int start = recordStart(pos);
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int digit = Character.digit(prefix.charAt(i), 16);
+            if (digit < 0) return -1;
+            int b = sorted.get(start + i / 2);
+            int cmp = Integer.compare(i % 2 == 0 ? (b >> 4) & 0xf : b & 0xf, digit);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    /**
+     * Value of the `i`-th byte of hexadecimal `id`, or -1 if it is not made of hexadecimal digits.
+     */
+    private static int hexByte(String id, int i) {
+        int hi = Character.digit(id.charAt(2 * i), 16);
+        int lo = Character.digit(id.charAt(2 * i + 1), 16);
+        if (hi < 0 || lo < 0) return -1;
+        return (hi << 4) | lo;
+    }
+
+    private int recordStart(int pos) {
+        return HEADER_LENGTH + FANOUT_LENGTH + pos * RECORD_LENGTH;
+    }
+
+    private int tailStart() {
+        return recordStart(sortedCount);
+    }
+
+    private String recordId(int start) {
+        byte[] id = new byte[ID_LENGTH];
+        sorted.get(start, id);
+        return bytesToHex(id);
+    }
+
+    private boolean hasMagic(ByteBuffer buffer) {
+        for (int i = 0; i < MAGIC.length; i += 1) {
+            if (buffer.get(i) != MAGIC[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,340 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * Metadata and messages of all commits, kept in .gitlet/CommitIndex so that `find` and
+ * `global-log` never read commit objects. It is made of files only ever appended to:
+ * - messages:    the messages of all commits, as UTF-8 bytes one after another
+ * - table:       a record per commit, in the order commits were made:
+ *                id (20 bytes) | timestamp (long) | first parent (20 bytes) | second parent (20 bytes)
+ *                | offset of the message in messages (long) | length of the message (int),
+ *                where a parent of zero bytes stands for no parent
+ * - postings-XX: postings of the inverted index, for each word of each message whose SHA-1 starts
+ *                with hex digits XX: next 64 bits of the SHA-1 of the word in lower case (long)
+ *                | number of the record of the commit (int)
+ * So `find` only reads the postings of the buckets of its words, a 256th of all postings for each word.
+ * A posting only makes its record a candidate, whose message is compared in full.
+ * <p>
+ * A commit is appended to messages and postings before its record, so a commit interrupted
+ * midway leaves no record, and postings of records beyond the table are ignored. A partial posting
+ * is dropped by the next one appended to the same bucket.
+ *
+ * @author Louis Lu
+ */
+class CommitIndex {
+
+    static final String COMMIT_INDEX_DIR_NAME = "CommitIndex";
+
+    private static final String TABLE_FILE_NAME = "table";
+    private static final String MESSAGES_FILE_NAME = "messages";
+    private static final String POSTINGS_FILE_PREFIX = "postings-";
+
+    private static final int ID_LENGTH = UID_LENGTH / 2;
+    private static final int RECORD_LENGTH = ID_LENGTH + 8 + ID_LENGTH + ID_LENGTH + 8 + 4;
+    private static final byte[] NO_PARENT = new byte[ID_LENGTH];
+    private static final int POSTING_LENGTH = 8 + 4;
+
+    private static CommitIndex local;
+
+    private final Path dir;
+    private final Path table;
+    private final Path messages;
+
+    /**
+     * Ids of the commits indexed when local() built this index, which the command that caused the build
+     * may add again, having stored them before. Empty for an index that was not built by this process.
+     */
+    private Set<String> built = Set.of();
+
+    /**
+     * A commit as recorded in the table.
+     */
+    static class Entry {
+        final String id;
+        final long timestamp;
+        final String parentId;
+        final String mergedParentId;
+        final String message;
+
+        Entry(String id, long timestamp, String parentId, String mergedParentId, String message) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.parentId = parentId;
+            this.mergedParentId = mergedParentId;
+            this.message = message;
+        }
+    }
+
+    private CommitIndex(Path dir) {
+        this.dir = dir;
+        this.table = dir.resolve(TABLE_FILE_NAME);
+        this.messages = dir.resolve(MESSAGES_FILE_NAME);
+    }
+
+    /**
+     * The commit index of the repository in CWD. A repository without one gets one built from all its commits.
+     */
+    static CommitIndex local() {
+        if (local == null) {
+            Path dir = Repository.GITLET_DIR.resolve(COMMIT_INDEX_DIR_NAME);
+            Set<String> built = Files.isDirectory(dir) ? Set.of() : build(dir);
+            local = new CommitIndex(dir);
+            local.built = built;
+        }
+        return local;
+    }
+
+    /**
+     * The commit index of the repository in `gitletDir`, another than the one in CWD, or null if it has none.
+     */
+    static CommitIndex open(Path gitletDir) {
+        Path dir = gitletDir.resolve(COMMIT_INDEX_DIR_NAME);
+        return Files.isDirectory(dir) ? new CommitIndex(dir) : null;
+    }
+
+    /**
+     * Forget the index of the repository in CWD, so that the next call of local() looks for it again.
+     */
+    static void unload() {
+        local = null;
+    }
+
+    /**
+     * Build the index of all commits in a temporary directory, then move it to `dir`.
+     * Return the ids of the commits indexed.
+     */
+    private static Set<String> build(Path dir) {
+        try {
+            Path tempDir = Files.createTempDirectory(dir.getParent(), COMMIT_INDEX_DIR_NAME);
+            CommitIndex index = new CommitIndex(tempDir);
+            List<String> ids = ObjectStore.local().list(ObjectStore.Type.COMMIT);
+            for (String id : ids) {
+                index.add(Commit.getCmt(id));
+            }
+            // Files of the index must be on disk before it appears
+            Journal.sync();
+            Files.move(tempDir, dir, StandardCopyOption.ATOMIC_MOVE);
+            Journal.written(dir);
+            return new HashSet<>(ids);
+        } catch (IOException e) {
+            throw error("Cannot build %s.", COMMIT_INDEX_DIR_NAME);
+        }
+    }
+
+    /**
+     * Append commit `cmt` to the index, unless the index was just built with it, by the command
+     * that stored the commit. Other commits added are new, so the table is never searched for them.
+     */
+    void add(Commit cmt) {
+        if (built.contains(cmt.getId())) return;
+        try (FileChannel tableChannel = FileChannel.open(table, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drop the partial record a crash may have left
+            long count = tableChannel.size() / RECORD_LENGTH;
+            tableChannel.truncate(count * RECORD_LENGTH);
+
+            byte[] message = cmt.getMessage().getBytes(StandardCharsets.UTF_8);
+            long offset = checkFileExist(messages) ? Files.size(messages) : 0;
+            append(messages, message);
+
+            for (String token : tokenize(cmt.getMessage())) {
+                String hash = sha1(token);
+                appendPosting(bucket(hash), ByteBuffer.allocate(POSTING_LENGTH)
+                        .putLong(key(hash)).putInt((int) count).array());
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+            record.put(hexToBytes(cmt.getId()));
+            record.putLong(cmt.getTimestamp());
+            record.put(cmt.getParentId() == null ? NO_PARENT : hexToBytes(cmt.getParentId()));
+            record.put(cmt.getMergedParentId() == null ? NO_PARENT : hexToBytes(cmt.getMergedParentId()));
+            record.putLong(offset);
+            record.putInt(message.length);
+            record.flip();
+            while (record.hasRemaining()) {
+                tableChannel.write(record, count * RECORD_LENGTH + record.position());
+            }
+            Journal.written(table);
+        } catch (IOException e) {
+            throw error("Cannot write %s.", COMMIT_INDEX_DIR_NAME);
+        }
+    }
+
+    /**
+     * Pass every commit to `action`, in the order commits were made.
+     */
+    void forEach(Consumer<Entry> action) {
+        if (!checkFileExist(table)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(table)));
+             FileChannel messageChannel = FileChannel.open(messages, StandardOpenOption.READ)) {
+            long count = Files.size(table) / RECORD_LENGTH;
+            for (long i = 0; i < count; i += 1) {
+                action.accept(readEntry(in, messageChannel));
+            }
+        } catch (IOException e) {
+            throw error("Cannot read %s.", COMMIT_INDEX_DIR_NAME);
+        }
+    }
+
+    /**
+     * Return ids of all commits whose message is `message`, in the order commits were made.
+     * Only commits containing every word of `message` are looked at.
+     */
+    List<String> find(String message) {
+        List<String> ids = new ArrayList<>();
+        Set<String> words = tokenize(message);
+        if (words.isEmpty()) {
+            forEach(entry -> {
+                if (entry.message.equals(message)) ids.add(entry.id);
+            });
+            return ids;
+        }
+        if (!checkFileExist(table)) return ids;
+
+        try (FileChannel tableChannel = FileChannel.open(table, StandardOpenOption.READ);
+             FileChannel messageChannel = FileChannel.open(messages, StandardOpenOption.READ)) {
+            long count = tableChannel.size() / RECORD_LENGTH;
+            for (long record : candidates(words, count)) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_LENGTH);
+                readFully(tableChannel, buffer, record * RECORD_LENGTH);
+                Entry entry = readEntry(new DataInputStream(new ByteArrayInputStream(buffer.array())), messageChannel);
+                if (entry.message.equals(message)) {
+                    ids.add(entry.id);
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot read %s.", COMMIT_INDEX_DIR_NAME);
+        }
+        return ids;
+    }
+
+    /**
+     * Return numbers of the records below `count` whose messages may contain all `words`, in ascending order.
+     * Only the buckets of `words` are read, stopping at the first word no record has.
+     */
+    private TreeSet<Long> candidates(Set<String> words, long count) throws IOException {
+        TreeSet<Long> result = null;
+        for (String word : words) {
+            String hash = sha1(word);
+            long key = key(hash);
+            TreeSet<Long> records = new TreeSet<>();
+            Path bucket = bucket(hash);
+            if (checkFileExist(bucket)) {
+                ByteBuffer postings = ByteBuffer.wrap(Files.readAllBytes(bucket));
+                while (postings.remaining() >= POSTING_LENGTH) {
+                    boolean matches = postings.getLong() == key;
+                    long record = Integer.toUnsignedLong(postings.getInt());
+                    if (matches && record < count) {
+                        records.add(record);
+                    }
+                }
+            }
+            if (result == null) {
+                result = records;
+            } else {
+                result.retainAll(records);
+            }
+            if (result.isEmpty()) break;
+        }
+        return result;
+    }
+
+    /**
+     * File of the postings of the word whose SHA-1 is `hash`.
+     */
+    private Path bucket(String hash) {
+        return dir.resolve(POSTINGS_FILE_PREFIX + hash.substring(0, 2));
+    }
+
+    /**
+     * Key of the word whose SHA-1 is `hash` in its bucket.
+     */
+    private static long key(String hash) {
+        return Long.parseUnsignedLong(hash.substring(2, 18), 16);
+    }
+
+    private static Entry readEntry(DataInputStream in, FileChannel messageChannel) throws IOException {
+        byte[] id = new byte[ID_LENGTH];
+        in.readFully(id);
+        long timestamp = in.readLong();
+        byte[] parent = new byte[ID_LENGTH];
+        in.readFully(parent);
+        byte[] mergedParent = new byte[ID_LENGTH];
+        in.readFully(mergedParent);
+        long offset = in.readLong();
+        ByteBuffer message = ByteBuffer.allocate(in.readInt());
+        readFully(messageChannel, message, offset);
+        return new Entry(bytesToHex(id), timestamp, parentId(parent), parentId(mergedParent),
+                new String(message.array(), StandardCharsets.UTF_8));
+    }
+
+    private static String parentId(byte[] parent) {
+        return Arrays.equals(parent, NO_PARENT) ? null : bytesToHex(parent);
+    }
+
+    /**
+     * Return the distinct words of `message`, in lower case.
+     */
+    static Set<String> tokenize(String message) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Append `posting` to `bucket`, dropping the partial posting a crash may have left.
+     */
+    private static void appendPosting(Path bucket, byte[] posting) throws IOException {
+        try (FileChannel channel = FileChannel.open(bucket, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long end = channel.size() / POSTING_LENGTH * POSTING_LENGTH;
+            channel.truncate(end);
+            ByteBuffer buffer = ByteBuffer.wrap(posting);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, end + buffer.position());
+            }
+        }
+        Journal.written(bucket);
+    }
+
+    private static void append(Path file, byte[] bytes) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(bytes);
+        }
+        Journal.written(file);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
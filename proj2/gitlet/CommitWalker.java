@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Iterates over a commit and its first parents, reading them on a background thread
+ * up to WINDOW commits ahead of the caller, so that reading a commit overlaps printing the previous ones.
+ * At most `limit` commits are ever read, however long the history is.
+ *
+ * @author Louis Lu
+ */
+class CommitWalker implements Iterator<Commit>, AutoCloseable {
+
+    private static final int WINDOW = 32;
+
+    /**
+     * Commits read ahead, an empty element marks the end of history.
+     */
+    private final BlockingQueue<Optional<Commit>> ahead = new ArrayBlockingQueue<>(WINDOW);
+    private final Thread reader;
+    private volatile RuntimeException failure;
+
+    private Commit next;
+    private boolean done;
+
+    /**
+     * Walk from commit `id` along first parents, stopping after `limit` commits.
+     */
+    CommitWalker(String id, long limit) {
+        reader = new Thread(() -> walk(id, limit), "commit-walker");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void walk(String id, long limit) {
+        try {
+            for (long i = 0; id != null && i < limit; i += 1) {
+                Commit cmt = Commit.getCmt(id);
+                if (cmt == null) {
+                    throw new GitletException("No commit with that id exists.");
+                }
+                ahead.put(Optional.of(cmt));
+                id = cmt.getParentId();
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        try {
+            ahead.put(Optional.empty());
+        } catch (InterruptedException e) {
+            // Closed by the caller
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) return true;
+        if (done) return false;
+        try {
+            Optional<Commit> cmt = ahead.take();
+            if (cmt.isEmpty()) {
+                done = true;
+                if (failure != null) throw failure;
+                return false;
+            }
+            next = cmt.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitletException("Interrupted.");
+        }
+    }
+
+    @Override
+    public Commit next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Commit cmt = next;
+        next = null;
+        return cmt;
+    }
+
+    /**
+     * Stop reading ahead, the caller does not need more commits.
+     */
+    @Override
+    public void close() {
+        reader.interrupt();
+    }
+}
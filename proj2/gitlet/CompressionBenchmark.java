@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the compression ratio and throughput of every Compressor on the files of a source tree,
+ * each file being compressed on its own as gitlet stores it.
+ * Usage: java gitlet.CompressionBenchmark [DIRECTORY]...
+ *
+ * @author Louis Lu
+ */
+public class CompressionBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        List<byte[]> files = new ArrayList<>();
+        for (String dir : args.length > 0 ? args : new String[]{"."}) {
+            files.addAll(readTree(Paths.get(dir)));
+        }
+        long total = 0;
+        for (byte[] file : files) {
+            total += file.length;
+        }
+        System.out.printf("%d files, %d bytes%n", files.size(), total);
+
+        System.out.printf("%-14s %14s %8s %16s %16s%n", "codec", "bytes", "ratio", "compress MB/s", "decompress MB/s");
+        System.out.printf("-----------------------------------------------------------------------%n");
+        for (Compressor compressor : Compressor.ALL) {
+            List<byte[]> compressed = new ArrayList<>();
+            for (byte[] file : files) {
+                compressed.add(compressor.compress(file));
+            }
+            long stored = 0;
+            for (byte[] file : compressed) {
+                stored += file.length;
+            }
+            double compressNanos = time(() -> {
+                for (byte[] file : files) {
+                    compressor.compress(file);
+                }
+            });
+            double decompressNanos = time(() -> {
+                for (byte[] file : compressed) {
+                    compressor.decompress(file);
+                }
+            });
+            System.out.printf("%-14s %14d %8.3f %16.2f %16.2f%n", compressor.name(), stored,
+                    (double) total / stored, total / compressNanos * 1e3, total / decompressNanos * 1e3);
+        }
+    }
+
+    private interface Task {
+        void run() throws IOException;
+    }
+
+    /**
+     * Return average nanoseconds taken by `task`, after a round of warming up.
+     */
+    private static double time(Task task) throws IOException {
+        task.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i += 1) {
+            task.run();
+        }
+        return (double) (System.nanoTime() - start) / ROUNDS;
+    }
+
+    /**
+     * Return contents of all regular files below `dir`, skipping .gitlet and .git directories.
+     */
+    private static List<byte[]> readTree(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            paths = walk.filter(Files::isRegularFile)
+                    .filter(path -> !isRepositoryFile(dir.relativize(path)))
+                    .collect(Collectors.toList());
+        }
+        List<byte[]> contents = new ArrayList<>();
+        for (Path path : paths) {
+            contents.add(Files.readAllBytes(path));
+        }
+        return contents;
+    }
+
+    private static boolean isRepositoryFile(Path path) {
+        for (Path name : path) {
+            if (name.toString().equals(".git") || name.toString().equals(Repository.GITLET_DIR_NAME)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
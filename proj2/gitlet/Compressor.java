@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * A compression codec for stored objects. Loose objects and pack entries record the code of
+ * the codec that wrote them, so objects written with different codecs can be read side by side.
+ * A new codec gets a new code and is added to ALL; codecs sharing a code must read each other's data.
+ * Objects are written with the codec chosen by option --compression=NAME, deflate by default.
+ *
+ * @author Louis Lu
+ */
+interface Compressor {
+
+    Compressor NONE = new Compressor() {
+        @Override
+        public int code() {
+            return 0;
+        }
+
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return in;
+        }
+    };
+
+    Compressor DEFLATE = deflate("deflate", Deflater.DEFAULT_COMPRESSION);
+
+    Compressor DEFLATE_FAST = deflate("deflate-fast", Deflater.BEST_SPEED);
+
+    List<Compressor> ALL = List.of(NONE, DEFLATE, DEFLATE_FAST);
+
+    /**
+     * Code recorded with objects written by this codec, from 0 to 127.
+     */
+    int code();
+
+    String name();
+
+    /**
+     * Return a stream compressing into `out`, closing it finishes the compressed data and closes `out`.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Return a stream of the data decompressed from `in`.
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+    default byte[] compress(byte[] contents) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(contents.length / 2 + 16);
+        try (OutputStream out = compress(buffer)) {
+            out.write(contents);
+        }
+        return buffer.toByteArray();
+    }
+
+    default byte[] decompress(byte[] compressed) throws IOException {
+        try (InputStream in = decompress(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Return the codec that reads data written with `code`.
+     */
+    static Compressor forCode(int code) {
+        for (Compressor compressor : ALL) {
+            if (compressor.code() == code) return compressor;
+        }
+        throw error("Object compressed with an unknown codec %d.", code);
+    }
+
+    /**
+     * Return the codec called `name`, or null if there is none.
+     */
+    static Compressor named(String name) {
+        for (Compressor compressor : ALL) {
+            if (compressor.name().equals(name)) return compressor;
+        }
+        return null;
+    }
+
+    /**
+     * Deflate of the JDK at compression `level`, all levels share code 1.
+     */
+    private static Compressor deflate(String name, int level) {
+        return new Compressor() {
+            @Override
+            public int code() {
+                return 1;
+            }
+
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public OutputStream compress(OutputStream out) {
+                Deflater deflater = new Deflater(level);
+                return new DeflaterOutputStream(out, deflater, 8192) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            deflater.end();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public InputStream decompress(InputStream in) {
+                return new InflaterInputStream(in);
+            }
+        };
+    }
+}
@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A long-lived process running the commands that Client forwards over the Unix domain socket
+ * .gitlet/daemon.sock, so that commands pay neither the start of a JVM nor the loading of classes and caches.
+ * It is started by `gitlet daemon` in the working directory of a repository and stopped by `gitlet daemon stop`.
+ * <p>
+ * Commands run one at a time, with System.out and System.err captured and sent back to the client.
+ * Between commands the daemon keeps its object caches, which are always valid since objects never change,
+ * and the commit graph, working directory index and list of packs. These are dropped
+ * after a command that failed, and when State, the commit graph, the index or the packs were changed
+ * by a gitlet run outside the daemon, as seen from their size and modification time.
+ * <p>
+ * A request is MAGIC (int) | working directory of the client (UTF) | number of arguments (int) | arguments (UTF)...
+ * The response is exit status (int) | length (int) | standard output | length (int) | standard error.
+ *
+ * @author Louis Lu
+ */
+class Daemon {
+
+    static final String SOCKET_FILE_NAME = "daemon.sock";
+
+    /**
+     * "GLD" and the version of the protocol.
+     */
+    static final int MAGIC = ('G' << 24) | ('L' << 16) | ('D' << 8) | 1;
+
+    /**
+     * Exit status of a command that failed with an unexpected exception, as a JVM would exit.
+     */
+    private static final int INTERNAL_ERROR = 1;
+
+    private Daemon() {
+    }
+
+    /**
+     * Serve commands until a client sends `daemon stop`.
+     */
+    static void serve() throws IOException {
+        Path socket = Repository.GITLET_DIR.resolve(SOCKET_FILE_NAME);
+        if (isRunning(socket)) {
+            throw new GitletException("A daemon is already running.");
+        }
+        // Left by a daemon that was killed
+        Files.deleteIfExists(socket);
+
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            stderr.printf("Serving %s.%n", Repository.CWD);
+            String seen = fingerprint();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+                    DataOutputStream out = new DataOutputStream(Channels.newOutputStream(client));
+                    String[] args = readRequest(in);
+                    if (args == null) {
+                        respond(out, INTERNAL_ERROR, new byte[0], bytes("Request not understood by the daemon.\n"));
+                        continue;
+                    }
+                    if (args.length > 0 && args[0].equals("daemon")) {
+                        running = !(args.length == 2 && args[1].equals("stop"));
+                        respond(out, 0, bytes(running ? "A daemon is already running.\n" : "Daemon stopped.\n"),
+                                new byte[0]);
+                        continue;
+                    }
+
+                    if (!seen.equals(fingerprint())) {
+                        unload();
+                    }
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    ByteArrayOutputStream errors = new ByteArrayOutputStream();
+                    int status = run(args, new PrintStream(output, true, StandardCharsets.UTF_8),
+                            new PrintStream(errors, true, StandardCharsets.UTF_8));
+                    System.setOut(stdout);
+                    System.setErr(stderr);
+                    seen = fingerprint();
+                    respond(out, status, output.toByteArray(), errors.toByteArray());
+                } catch (IOException e) {
+                    // The client went away, serve the next one
+                    stderr.printf("Lost client: %s%n", e.getMessage());
+                }
+            }
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Ask the daemon of the repository in CWD to stop.
+     */
+    static void stop() throws IOException {
+        Path socket = Repository.GITLET_DIR.resolve(SOCKET_FILE_NAME);
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            writeRequest(out, new String[]{"daemon", "stop"});
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            in.readInt();
+            System.out.write(in.readNBytes(in.readInt()));
+            System.out.flush();
+        } catch (IOException e) {
+            throw new GitletException("No daemon is running.");
+        }
+    }
+
+    /**
+     * Run the command of `args` with its output going to `out` and `err`, return its exit status.
+     */
+    private static int run(String[] args, PrintStream out, PrintStream err) {
+        System.setOut(out);
+        System.setErr(err);
+        Main.resetOptions();
+        try {
+            if (!Main.run(args)) {
+                // A failed command may have changed indexes in memory without saving them
+                unload();
+            }
+            return 0;
+        } catch (Exception e) {
+            e.printStackTrace(err);
+            unload();
+            return INTERNAL_ERROR;
+        } finally {
+            out.flush();
+            err.flush();
+        }
+    }
+
+    private static void writeRequest(DataOutputStream out, String[] args) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeUTF(Repository.CWD);
+        out.writeInt(args.length);
+        for (String arg : args) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+    }
+
+    /**
+     * Return the arguments of a request, or null if it is not for this daemon.
+     */
+    private static String[] readRequest(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || !in.readUTF().equals(Repository.CWD)) {
+            return null;
+        }
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        return args;
+    }
+
+    private static void respond(DataOutputStream out, int status, byte[] output, byte[] errors) throws IOException {
+        out.writeInt(status);
+        out.writeInt(output.length);
+        out.write(output);
+        out.writeInt(errors.length);
+        out.write(errors);
+        out.flush();
+    }
+
+    private static byte[] bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isRunning(Path socket) {
+        if (!Files.exists(socket)) return false;
+        try {
+            // Only whether a daemon accepts connections matters
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Drop everything read from the repository except cached objects.
+     */
+    private static void unload() {
+        ObjectStore.unload();
+        CommitGraph.unload();
+        CommitIndex.unload();
+        StatIndex.unload();
+    }
+
+    /**
+     * Sizes and modification times of the files whose copies the daemon keeps in memory.
+     */
+    private static String fingerprint() {
+        StringBuilder fingerprint = new StringBuilder();
+        Path[] files = {
+            Repository.STATES_FILE,
+            Repository.GITLET_DIR.resolve(CommitGraph.COMMIT_GRAPH_FILE_NAME),
+            Repository.GITLET_DIR.resolve(StatIndex.INDEX_FILE_NAME),
+            Repository.GITLET_DIR.resolve(ObjectStore.PACKS_DIR_NAME),
+        };
+        for (Path file : files) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                fingerprint.append(attrs.size()).append(':').append(attrs.lastModifiedTime()).append(';');
+            } catch (IOException e) {
+                fingerprint.append("-;");
+            }
+        }
+        return fingerprint.toString();
+    }
+}
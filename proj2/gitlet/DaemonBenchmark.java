@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Compares the latency of commands run cold, one JVM each as `java gitlet.Main`, with the same commands
+ * sent to a Daemon, from the thin Client, which still starts a JVM, and from this process,
+ * which leaves the cost of running the command in the daemon alone.
+ * Runs in a new repository of FILES files and COMMITS commits in a temporary directory.
+ * Usage: java gitlet.DaemonBenchmark [ROUNDS]
+ *
+ * @author Louis Lu
+ */
+public class DaemonBenchmark {
+
+    private static final int FILES = 200;
+    private static final int COMMITS = 50;
+
+    private static final String[][] COMMANDS = {{"status"}, {"log"}, {"find", "commit"}, {"diff"}};
+
+    private static String java;
+    private static String classPath;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        classPath = System.getProperty("java.class.path");
+        Path dir = Files.createTempDirectory("gitlet-daemon-benchmark").toRealPath();
+        Process daemon = null;
+        try {
+            System.out.printf("Setting up %d files and %d commits in %s%n", FILES, COMMITS, dir);
+            gitlet(dir, "Main", "init");
+            for (int i = 0; i < FILES; i += 1) {
+                Files.writeString(dir.resolve("file" + i + ".txt"), "contents of file " + i + "\n");
+            }
+            gitlet(dir, "Main", "add", ".");
+            gitlet(dir, "Main", "commit", "add files");
+            daemon = new ProcessBuilder(java, "-cp", classPath, "gitlet.Main", "daemon")
+                    .directory(dir.toFile()).redirectErrorStream(true).start();
+            Path socket = dir.resolve(Repository.GITLET_DIR_NAME).resolve(Daemon.SOCKET_FILE_NAME);
+            while (!Files.exists(socket)) {
+                Thread.sleep(10);
+            }
+            for (int i = 1; i < COMMITS; i += 1) {
+                Files.writeString(dir.resolve("file" + (i % FILES) + ".txt"), "revision " + i + "\n");
+                direct(socket, dir, "add", "file" + (i % FILES) + ".txt");
+                direct(socket, dir, "commit", "commit " + i);
+            }
+
+            System.out.printf("Median of %d rounds, in milliseconds%n", rounds);
+            System.out.printf("%-14s %10s %10s %10s%n", "command", "cold", "client", "daemon");
+            System.out.printf("-----------------------------------------------%n");
+            for (String[] command : COMMANDS) {
+                double cold = median(rounds, () -> gitlet(dir, "Main", command));
+                double client = median(rounds, () -> gitlet(dir, "Client", command));
+                double direct = median(rounds, () -> direct(socket, dir, command));
+                System.out.printf("%-14s %10.1f %10.1f %10.1f%n", String.join(" ", command), cold, client, direct);
+            }
+            direct(socket, dir, "daemon", "stop");
+            daemon.waitFor();
+        } finally {
+            if (daemon != null) {
+                daemon.destroy();
+            }
+            try (Stream<Path> walk = Files.walk(dir)) {
+                for (Path path : walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private interface Task {
+        void run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Return the median of milliseconds taken by `rounds` runs of `task`, after a run warming up.
+     */
+    private static double median(int rounds, Task task) throws IOException, InterruptedException {
+        task.run();
+        double[] times = new double[rounds];
+        for (int i = 0; i < rounds; i += 1) {
+            long start = System.nanoTime();
+            task.run();
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        return times[rounds / 2];
+    }
+
+    /**
+     * Run `java gitlet.MAIN_CLASS ARGS` in `dir` and wait for it.
+     */
+    private static void gitlet(Path dir, String mainClass, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(java, "-cp", classPath, "gitlet." + mainClass));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).directory(dir.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        if (process.waitFor() != 0) {
+            throw new IOException("gitlet " + String.join(" ", args) + " failed");
+        }
+    }
+
+    /**
+     * Send `args` to the daemon listening on `socket` from this process.
+     */
+    private static void direct(Path socket, Path dir, String... args) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            if (Client.forward(channel, dir.toString(), args, output, output) != 0) {
+                throw new IOException("gitlet " + String.join(" ", args) + " failed: " + output);
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static gitlet.Utils.*;
+
+/**
+ * Delta encoding of an object against a base object, in the spirit of xdelta:
+ * the target is described as a sequence of instructions that either copy a range of
+ * the base or insert literal bytes.
+ * delta:  base length (varint) | target length (varint) | instructions
+ * copy:   0x80 | offset in base (varint) | length (varint)
+ * insert: length, between 1 and 127 (byte) | literal bytes
+ *
+ * @author Louis Lu
+ */
+class Delta {
+
+    /**
+     * Length of the blocks of the base that are indexed, matches shorter than this are not found.
+     */
+    private static final int BLOCK = 16;
+
+    /**
+     * Number of candidate blocks compared for each position of the target.
+     */
+    private static final int MAX_CANDIDATES = 64;
+
+    private static final int COPY = 0x80;
+    private static final int MAX_INSERT = 0x7f;
+
+    private Delta() {
+    }
+
+    /**
+     * Return the delta turning `base` into `target`.
+     */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(target.length / 4 + 16);
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        // Chained hash table of the non-overlapping blocks of base, heads[h] is the last block with hash h
+        int blocks = base.length / BLOCK;
+        int mask = Integer.highestOneBit(Math.max(blocks, 1) * 2) - 1;
+        int[] heads = new int[mask + 1];
+        int[] next = new int[blocks];
+        Arrays.fill(heads, -1);
+        for (int b = 0; b < blocks; b += 1) {
+            int h = hash(base, b * BLOCK) & mask;
+            next[b] = heads[h];
+            heads[h] = b;
+        }
+
+        int insertStart = 0;
+        int pos = 0;
+        while (blocks > 0 && pos + BLOCK <= target.length) {
+            int h = hash(target, pos) & mask;
+            int bestOffset = 0;
+            int bestLength = 0;
+            int tries = 0;
+            for (int b = heads[h]; b >= 0 && tries < MAX_CANDIDATES; b = next[b], tries += 1) {
+                int length = matchLength(base, b * BLOCK, target, pos);
+                if (length > bestLength) {
+                    bestOffset = b * BLOCK;
+                    bestLength = length;
+                }
+            }
+            if (bestLength < BLOCK) {
+                pos += 1;
+                continue;
+            }
+            // Extend the match backwards over bytes that would otherwise be inserted
+            while (bestOffset > 0 && pos > insertStart && base[bestOffset - 1] == target[pos - 1]) {
+                bestOffset -= 1;
+                pos -= 1;
+                bestLength += 1;
+            }
+            writeInsert(out, target, insertStart, pos);
+            out.write(COPY);
+            writeVarint(out, bestOffset);
+            writeVarint(out, bestLength);
+            pos += bestLength;
+            insertStart = pos;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the target encoded by `delta` against `base`.
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw error("Delta does not apply to its base.");
+        }
+        byte[] target = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if ((op & COPY) != 0) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, target, written, length);
+                written += length;
+            } else {
+                System.arraycopy(delta, pos[0], target, written, op);
+                pos[0] += op;
+                written += op;
+            }
+        }
+        if (written != target.length) {
+            throw error("Corrupted delta.");
+        }
+        return target;
+    }
+
+    private static int hash(byte[] bytes, int start) {
+        int h = 0;
+        for (int i = start; i < start + BLOCK; i += 1) {
+            h = h * 31 + bytes[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int matchLength(byte[] base, int baseStart, byte[] target, int targetStart) {
+        int length = 0;
+        while (baseStart + length < base.length && targetStart + length < target.length
+                && base[baseStart + length] == target[targetStart + length]) {
+            length += 1;
+        }
+        return length;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int start, int end) {
+        while (start < end) {
+            int length = Math.min(MAX_INSERT, end - start);
+            out.write(length);
+            out.write(target, start, length);
+            start += length;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,535 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Line-level diff of files, with the linear space algorithm of E. Myers,
+ * "An O(ND) Difference Algorithm and Its Variations". Lines are interned to ints first, so comparing
+ * two lines is comparing two ints, and the common prefix and suffix of the files are trimmed before
+ * the search, which then only covers the changed middle.
+ * <p>
+ * As in the diff of git, the search for a middle snake gives up once it costs more edits than about
+ * the square root of the number of lines, and splits at the furthest point reached instead. So very
+ * different files are diffed in about O(N^1.5) time rather than O(N^2), at the price of a script
+ * that may be a little longer than the shortest one. Files differing by fewer edits are unaffected.
+ *
+ * @author Louis Lu
+ */
+class Diff {
+
+    /**
+     * Number of unchanged lines shown around changes by writeUnified.
+     */
+    static final int CONTEXT = 3;
+
+    private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Lowest number of edits a search for a middle snake may cost before splitting at the furthest point.
+     */
+    private static final int MIN_MAX_COST = 256;
+
+    private Diff() {
+    }
+
+    /**
+     * Contents of a file split into lines, each line keeping its line terminator.
+     * Equal lines of all files split by the same Interner get the same id.
+     */
+    static class Lines {
+        private final byte[] contents;
+        /**
+         * Line i is contents[starts[i], starts[i + 1])
+         */
+        private final int[] starts;
+        final int[] ids;
+
+        private Lines(byte[] contents, int[] starts, int[] ids) {
+            this.contents = contents;
+            this.starts = starts;
+            this.ids = ids;
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Write lines [from, to) into `out`.
+         */
+        void write(OutputStream out, int from, int to) throws IOException {
+            out.write(contents, starts[from], starts[to] - starts[from]);
+        }
+
+        /**
+         * Return true if lines [from, to) of this file are lines [otherFrom, otherTo) of `other`.
+         */
+        boolean rangeEquals(int from, int to, Lines other, int otherFrom, int otherTo) {
+            return Arrays.equals(ids, from, to, other.ids, otherFrom, otherTo);
+        }
+
+        /**
+         * Write lines [from, to) into `out`, each preceded by `prefix`.
+         */
+        void write(OutputStream out, char prefix, int from, int to) throws IOException {
+            for (int i = from; i < to; i += 1) {
+                out.write(prefix);
+                write(out, i, i + 1);
+                if (i == size() - 1 && missingFinalNewline()) {
+                    out.write(NO_NEWLINE);
+                }
+            }
+        }
+
+        /**
+         * Return true if the last line has no line terminator.
+         */
+        boolean missingFinalNewline() {
+            return contents.length > 0 && contents[contents.length - 1] != '\n';
+        }
+    }
+
+    /**
+     * Splits files into lines, giving equal lines the same id. Lines are kept in an open addressing
+     * hash table of ids, each id remembering where its first line is, so interning allocates nothing per line.
+     */
+    static class Interner {
+        /**
+         * table[slot] is 1 + the id of the line hashed to slot, or 0 for an empty slot.
+         */
+        private int[] table = new int[1024];
+        private byte[][] lineContents = new byte[256][];
+        private int[] lineStarts = new int[256];
+        private int[] lineEnds = new int[256];
+        private int[] lineHashes = new int[256];
+        private int size;
+
+        Lines split(byte[] contents) {
+            int count = 0;
+            for (byte b : contents) {
+                if (b == '\n') count += 1;
+            }
+            if (contents.length > 0 && contents[contents.length - 1] != '\n') count += 1;
+
+            int[] starts = new int[count + 1];
+            int[] lineIds = new int[count];
+            int line = 0;
+            int start = 0;
+            int hash = 1;
+            for (int i = 0; i < contents.length; i += 1) {
+                hash = 31 * hash + contents[i];
+                if (contents[i] == '\n' || i == contents.length - 1) {
+                    starts[line] = start;
+                    lineIds[line] = intern(contents, start, i + 1, hash);
+                    line += 1;
+                    start = i + 1;
+                    hash = 1;
+                }
+            }
+            starts[count] = contents.length;
+            return new Lines(contents, starts, lineIds);
+        }
+
+        private int intern(byte[] contents, int from, int to, int hash) {
+            int mask = table.length - 1;
+            for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+                int id = table[slot] - 1;
+                if (id < 0) {
+                    id = add(contents, from, to, hash);
+                    table[slot] = id + 1;
+                    if (size * 2 > table.length) rehash();
+                    return id;
+                }
+                if (lineHashes[id] == hash && Arrays.equals(
+                        lineContents[id], lineStarts[id], lineEnds[id], contents, from, to)) {
+                    return id;
+                }
+            }
+        }
+
+        private int add(byte[] contents, int from, int to, int hash) {
+            if (size == lineHashes.length) {
+                int capacity = size * 2;
+                lineContents = Arrays.copyOf(lineContents, capacity);
+                lineStarts = Arrays.copyOf(lineStarts, capacity);
+                lineEnds = Arrays.copyOf(lineEnds, capacity);
+                lineHashes = Arrays.copyOf(lineHashes, capacity);
+            }
+            lineContents[size] = contents;
+            lineStarts[size] = from;
+            lineEnds[size] = to;
+            lineHashes[size] = hash;
+            size += 1;
+            return size - 1;
+        }
+
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int id = 0; id < size; id += 1) {
+                int slot = mix(lineHashes[id]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        /**
+         * Spread bits of `hash`, since the table only looks at low bits.
+         */
+        private static int mix(int hash) {
+            hash *= 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Lines [aStart, aEnd) of the old file replaced by lines [bStart, bEnd) of the new one.
+     * One of the ranges may be empty, for a pure insertion or deletion.
+     */
+    static class Edit {
+        final int aStart;
+        final int aEnd;
+        final int bStart;
+        final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /**
+     * Return the edits turning `a` into `b`, in order, separated by at least one common line.
+     */
+    static List<Edit> diff(Lines a, Lines b) {
+        return diff(a.ids, b.ids);
+    }
+
+    static List<Edit> diff(int[] a, int[] b) {
+        int aLo = 0;
+        int bLo = 0;
+        int aHi = a.length;
+        int bHi = b.length;
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aHi > aLo && bHi > bLo && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+
+        // Mark lines of the trimmed middle that are not part of the longest common subsequence
+        boolean[] aChanged = new boolean[a.length];
+        boolean[] bChanged = new boolean[b.length];
+        if (aLo == aHi || bLo == bHi) {
+            Arrays.fill(aChanged, aLo, aHi, true);
+            Arrays.fill(bChanged, bLo, bHi, true);
+        } else {
+            markChanges(a, aLo, aHi, b, bLo, bHi, aChanged, bChanged);
+        }
+        return toEdits(aChanged, bChanged);
+    }
+
+    /**
+     * Mark lines of a[aLo, aHi) and b[bLo, bHi) that are not on a shortest edit script, in linear space:
+     * find the middle snake of the script by searching from both ends at once, then mark each half
+     * the same way. Takes O((N + M) D) time for files of N and M lines differing by D lines,
+     * D being at most the cost limit of Search for each snake.
+     * Lines of either side that do not occur in the other one cannot be common and are left out
+     * of the search, which makes N and D small when most changed lines are new ones.
+     */
+    private static void markChanges(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                    boolean[] aChanged, boolean[] bChanged) {
+        int[] aKept = occurring(a, aLo, aHi, b, bLo, bHi);
+        int[] bKept = occurring(b, bLo, bHi, a, aLo, aHi);
+        int[] aLines = new int[aKept.length];
+        int[] bLines = new int[bKept.length];
+        for (int i = 0; i < aKept.length; i += 1) {
+            aLines[i] = a[aKept[i]];
+        }
+        for (int i = 0; i < bKept.length; i += 1) {
+            bLines[i] = b[bKept[i]];
+        }
+        boolean[] aKeptChanged = new boolean[aKept.length];
+        boolean[] bKeptChanged = new boolean[bKept.length];
+        int max = (aKept.length + bKept.length + 1) / 2 + 1;
+        new Search(aLines, bLines, aKeptChanged, bKeptChanged, max).mark(0, aKept.length, 0, bKept.length);
+
+        Arrays.fill(aChanged, aLo, aHi, true);
+        Arrays.fill(bChanged, bLo, bHi, true);
+        for (int i = 0; i < aKept.length; i += 1) {
+            aChanged[aKept[i]] = aKeptChanged[i];
+        }
+        for (int i = 0; i < bKept.length; i += 1) {
+            bChanged[bKept[i]] = bKeptChanged[i];
+        }
+    }
+
+    /**
+     * Return indexes of lines of lines[lo, hi) that occur in other[otherLo, otherHi), in order.
+     */
+    private static int[] occurring(int[] lines, int lo, int hi, int[] other, int otherLo, int otherHi) {
+        BitSet present = new BitSet();
+        for (int i = otherLo; i < otherHi; i += 1) {
+            present.set(other[i]);
+        }
+        int[] kept = new int[hi - lo];
+        int count = 0;
+        for (int i = lo; i < hi; i += 1) {
+            if (present.get(lines[i])) {
+                kept[count] = i;
+                count += 1;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Divide and conquer search of a shortest edit script, sharing the furthest reaching paths
+     * between all steps.
+     */
+    private static class Search {
+        private final int[] a;
+        private final int[] b;
+        private final boolean[] aChanged;
+        private final boolean[] bChanged;
+        /**
+         * forward[offset + k] is the furthest x reached from the start on diagonal k = x - y, and
+         * backward[offset + k] the furthest distance reached from the end on diagonal k of the reversed files.
+         */
+        private final int[] forward;
+        private final int[] backward;
+        private final int offset;
+        /**
+         * Number of edits after which middleSnake splits at the furthest point reached.
+         */
+        private final int maxCost;
+
+        /* The middle snake found by the last call of middleSnake, relative to the range searched */
+        private int snakeX;
+        private int snakeY;
+        private int snakeU;
+        private int snakeV;
+
+        Search(int[] a, int[] b, boolean[] aChanged, boolean[] bChanged, int max) {
+            this.a = a;
+            this.b = b;
+            this.aChanged = aChanged;
+            this.bChanged = bChanged;
+            this.offset = max + 1;
+            this.forward = new int[2 * max + 3];
+            this.backward = new int[2 * max + 3];
+            this.maxCost = Math.max(MIN_MAX_COST, (int) Math.sqrt(a.length + b.length + 3));
+        }
+
+        void mark(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aHi > aLo && bHi > bLo && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi || bLo == bHi) {
+                Arrays.fill(aChanged, aLo, aHi, true);
+                Arrays.fill(bChanged, bLo, bHi, true);
+                return;
+            }
+            middleSnake(aLo, aHi, bLo, bHi);
+            int x = snakeX;
+            int y = snakeY;
+            int u = snakeU;
+            int v = snakeV;
+            mark(aLo, aLo + x, bLo, bLo + y);
+            mark(aLo + u, aHi, bLo + v, bHi);
+        }
+
+        /**
+         * Find the snake in the middle of a shortest edit script of a[aLo, aHi) and b[bLo, bHi),
+         * whose ends are neither equal at the start nor at the end. If the script costs more than
+         * maxCost edits, return instead the furthest point reached from either end, as an empty snake.
+         */
+        private void middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            for (int d = 0; ; d += 1) {
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                        x = forward[offset + k + 1];
+                    } else {
+                        x = forward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[offset + k] = x;
+                    int reverseK = delta - k;
+                    if (odd && reverseK >= -(d - 1) && reverseK <= d - 1
+                            && x + backward[offset + reverseK] >= n) {
+                        setSnake(startX, startY, x, y);
+                        return;
+                    }
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                        x = backward[offset + k + 1];
+                    } else {
+                        x = backward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    backward[offset + k] = x;
+                    int forwardK = delta - k;
+                    if (!odd && forwardK >= -d && forwardK <= d
+                            && x + forward[offset + forwardK] >= n) {
+                        setSnake(n - x, m - y, n - startX, m - startY);
+                        return;
+                    }
+                }
+                if (d >= maxCost && splitFurthest(n, m, d)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Set the snake to the point of the paths of `d` edits from either end that is furthest
+         * from where its path started, return false if no path reached a point strictly inside the range.
+         */
+        private boolean splitFurthest(int n, int m, int d) {
+            int forwardBest = 0;
+            int forwardX = 0;
+            int backwardBest = 0;
+            int backwardX = 0;
+            for (int k = -d; k <= d; k += 2) {
+                int x = forward[offset + k];
+                int y = x - k;
+                if (x <= n && y >= 0 && y <= m && x + y < n + m && x + y > forwardBest) {
+                    forwardBest = x + y;
+                    forwardX = x;
+                }
+                x = backward[offset + k];
+                y = x - k;
+                if (x <= n && y >= 0 && y <= m && x + y < n + m && x + y > backwardBest) {
+                    backwardBest = x + y;
+                    backwardX = x;
+                }
+            }
+            if (forwardBest == 0 && backwardBest == 0) return false;
+            if (forwardBest >= backwardBest) {
+                int y = forwardBest - forwardX;
+                setSnake(forwardX, y, forwardX, y);
+            } else {
+                int y = backwardBest - backwardX;
+                setSnake(n - backwardX, m - y, n - backwardX, m - y);
+            }
+            return true;
+        }
+
+        private void setSnake(int x, int y, int u, int v) {
+            snakeX = x;
+            snakeY = y;
+            snakeU = u;
+            snakeV = v;
+        }
+    }
+
+    /**
+     * Group changed lines into edits, walking both files along their common lines.
+     */
+    private static List<Edit> toEdits(boolean[] aChanged, boolean[] bChanged) {
+        List<Edit> edits = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < aChanged.length || j < bChanged.length) {
+            if ((i < aChanged.length && aChanged[i]) || (j < bChanged.length && bChanged[j])) {
+                int aStart = i;
+                int bStart = j;
+                while (i < aChanged.length && aChanged[i]) i += 1;
+                while (j < bChanged.length && bChanged[j]) j += 1;
+                edits.add(new Edit(aStart, i, bStart, j));
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Write `edits` turning `a` into `b` into `out` as the hunks of a unified diff, with CONTEXT
+     * unchanged lines around changes. Edits closer than twice CONTEXT lines share a hunk.
+     */
+    static void writeUnified(OutputStream out, Lines a, Lines b, List<Edit> edits) throws IOException {
+        int i = 0;
+        while (i < edits.size()) {
+            int last = i;
+            while (last + 1 < edits.size() && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Edit first = edits.get(i);
+            int aStart = Math.max(0, first.aStart - CONTEXT);
+            int bStart = first.bStart - (first.aStart - aStart);
+            int aEnd = Math.min(a.size(), edits.get(last).aEnd + CONTEXT);
+            int bEnd = edits.get(last).bEnd + (aEnd - edits.get(last).aEnd);
+            String header = "@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@\n";
+            out.write(header.getBytes(StandardCharsets.UTF_8));
+
+            int pos = aStart;
+            for (; i <= last; i += 1) {
+                Edit edit = edits.get(i);
+                a.write(out, ' ', pos, edit.aStart);
+                a.write(out, '-', edit.aStart, edit.aEnd);
+                b.write(out, '+', edit.bStart, edit.bEnd);
+                pos = edit.aEnd;
+            }
+            a.write(out, ' ', pos, aEnd);
+        }
+    }
+
+    /**
+     * Lines [start, end) as written in hunk headers, counting lines from 1,
+     * where an empty range is given by the line before it.
+     */
+    private static String range(int start, int end) {
+        if (end - start == 1) return Integer.toString(start + 1);
+        return (end == start ? start : start + 1) + "," + (end - start);
+    }
+
+    /**
+     * Return true if `contents` looks like a binary file, having a NUL byte in its first 8000 bytes.
+     */
+    static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, 8000); i += 1) {
+            if (contents[i] == 0) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times Diff on generated files: two dissimilar files whose lines are drawn from the same small set,
+ * the worst case of the search, and two similar files differing by one line in a hundred.
+ * Usage: java gitlet.DiffBenchmark [NUMBER OF LINES] [NUMBER OF DISTINCT LINES]
+ *
+ * @author Louis Lu
+ */
+public class DiffBenchmark {
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int distinct = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Random random = new Random(61);
+
+        byte[] a = randomLines(random, lines, distinct);
+        byte[] b = randomLines(random, lines, distinct);
+        byte[] similar = changeLines(random, a, lines / 100, distinct);
+
+        System.out.printf("%-12s %10s %10s %14s %12s%n", "files", "lines", "edits", "changed lines", "ms");
+        System.out.printf("-------------------------------------------------------------%n");
+        report("dissimilar", a, b);
+        report("similar", a, similar);
+    }
+
+    private static void report(String name, byte[] a, byte[] b) {
+        // Once to warm up
+        diff(a, b);
+        long start = System.nanoTime();
+        Diff.Interner interner = new Diff.Interner();
+        Diff.Lines aLines = interner.split(a);
+        Diff.Lines bLines = interner.split(b);
+        List<Diff.Edit> edits = Diff.diff(aLines, bLines);
+        double millis = (System.nanoTime() - start) / 1e6;
+        int changed = 0;
+        for (Diff.Edit edit : edits) {
+            changed += edit.aEnd - edit.aStart + edit.bEnd - edit.bStart;
+        }
+        System.out.printf("%-12s %10d %10d %14d %12.1f%n", name, aLines.size(), edits.size(), changed, millis);
+    }
+
+    private static void diff(byte[] a, byte[] b) {
+        Diff.Interner interner = new Diff.Interner();
+        Diff.diff(interner.split(a), interner.split(b));
+    }
+
+    private static byte[] randomLines(Random random, int lines, int distinct) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < lines; i += 1) {
+            out.writeBytes(line(random.nextInt(distinct)));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Return `contents` with `count` of its lines replaced by random ones.
+     */
+    private static byte[] changeLines(Random random, byte[] contents, int count, int distinct) {
+        String[] lines = new String(contents, StandardCharsets.UTF_8).split("\n");
+        for (int i = 0; i < count; i += 1) {
+            lines[random.nextInt(lines.length)] = "changed " + random.nextInt(distinct);
+        }
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] line(int n) {
+        return ("line " + n + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
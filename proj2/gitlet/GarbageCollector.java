@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * `gitlet gc`: deletes the objects nothing refers to any more, such as blobs staged and then reset,
+ * or the commits of a deleted branch with the trees, blobs and chunks only they used.
+ * <p>
+ * Objects are reachable from the heads of all branches, HEAD and the staged blobs. Marking walks
+ * the commit graph from these to all their ancestors, then reads the commits in parallel for their trees,
+ * walks the trees a level at a time, nodes of a level in parallel, and reads blobs in parallel for their chunks.
+ * Reachable objects stored here are repacked into a single pack, see ObjectStore.repack.
+ * <p>
+ * Objects written less than a grace period ago, two weeks by default, are kept with all they refer to,
+ * as another command may be about to refer to them. Those that are not reachable are left as loose files
+ * as old as they were, so that they are deleted by a gc once the period has passed.
+ * All other objects are deleted. Objects of alternates are read but never deleted, and the source of
+ * a shared clone must not be collected while the clone uses objects that only the clone refers to.
+ * <p>
+ * When commits are deleted, the commit graph and the commit index are rebuilt from the commits left,
+ * so that global-log and find no longer list them. Otherwise the commit graph is only sorted again.
+ *
+ * @author Louis Lu
+ */
+class GarbageCollector {
+
+    static final long DEFAULT_GRACE_PERIOD = 14L * 24 * 60 * 60 * 1000;
+
+    private final ObjectStore store;
+
+    /**
+     * Objects reachable from branches, HEAD and the staging area, by type.
+     */
+    private final Map<ObjectStore.Type, Set<String>> reachable = newMarks();
+
+    /**
+     * Objects only reachable from objects written during the grace period, by type.
+     */
+    private final Map<ObjectStore.Type, Set<String>> recent = newMarks();
+
+    private GarbageCollector(ObjectStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Delete objects of the repository in CWD that are not reachable from `commits` and `blobs`,
+     * and were written more than `gracePeriod` milliseconds ago. Print what was done.
+     */
+    static void collect(Collection<String> commits, Collection<String> blobs, long gracePeriod) throws IOException {
+        ObjectStore store = ObjectStore.local();
+        GarbageCollector collector = new GarbageCollector(store);
+        long sizeBefore = store.diskUsage();
+        List<String> commitsBefore = store.listHere(ObjectStore.Type.COMMIT);
+
+        long start = System.nanoTime();
+        collector.mark(collector.reachable, commits, List.of(), blobs, List.of());
+        long since = System.currentTimeMillis() - gracePeriod;
+        collector.mark(collector.recent, store.listSince(ObjectStore.Type.COMMIT, since),
+                store.listSince(ObjectStore.Type.TREE, since), store.listSince(ObjectStore.Type.BLOB, since),
+                store.listSince(ObjectStore.Type.CHUNK, since));
+        report(String.format("Marked %d reachable and %d recent objects",
+                count(collector.reachable), count(collector.recent)), start);
+
+        // Counted after marking, which stores the trees of commits of older formats
+        int countBefore = 0;
+        for (ObjectStore.Type type : ObjectStore.Type.values()) {
+            countBefore += store.listHere(type).size();
+        }
+
+        start = System.nanoTime();
+        int packed = store.repack(collector::isReachable, collector::isRecent);
+        int loose = 0;
+        for (ObjectStore.Type type : ObjectStore.Type.values()) {
+            for (String id : store.listHere(type)) {
+                if (!collector.isReachable(type, id)) loose += 1;
+            }
+        }
+        report(String.format("Packed %d objects, kept %d recent ones loose and pruned %d",
+                packed, loose, countBefore - packed - loose), start);
+
+        if (commitsBefore.stream().anyMatch(id -> !collector.isReachable(ObjectStore.Type.COMMIT, id)
+                && !collector.isRecent(ObjectStore.Type.COMMIT, id))) {
+            start = System.nanoTime();
+            rebuildCommitIndexes();
+            report("Rebuilt the commit graph and the commit index", start);
+        } else {
+            CommitGraph.local().compact();
+        }
+        long sizeAfter = store.diskUsage();
+        if (sizeAfter <= sizeBefore) {
+            System.out.printf("Reclaimed %d bytes, objects take %d bytes.%n", sizeBefore - sizeAfter, sizeAfter);
+        } else {
+            // Nothing was pruned, and a pack takes more than the few loose objects it replaced
+            System.out.printf("Reclaimed 0 bytes, objects take %d bytes.%n", sizeAfter);
+        }
+    }
+
+    private boolean isReachable(ObjectStore.Type type, String id) {
+        return reachable.get(type).contains(id);
+    }
+
+    private boolean isRecent(ObjectStore.Type type, String id) {
+        return recent.get(type).contains(id);
+    }
+
+    /**
+     * Mark into `marks` the objects reachable from the given ones that are not reachable already.
+     */
+    private void mark(Map<ObjectStore.Type, Set<String>> marks, Collection<String> commits,
+                      Collection<String> trees, Collection<String> blobs, Collection<String> chunks) {
+        // Commits, walking the graph, which has the parents of all commits
+        CommitGraph graph = CommitGraph.local();
+        Set<String> markedCommits = marks.get(ObjectStore.Type.COMMIT);
+        Deque<String> wants = new ArrayDeque<>(commits);
+        while (!wants.isEmpty()) {
+            String id = wants.pop();
+            if (markObject(marks, ObjectStore.Type.COMMIT, id)) {
+                wants.addAll(graph.parents(id));
+            }
+        }
+
+        // Trees, a level at a time
+        List<String> level = new ArrayList<>();
+        for (String id : trees) {
+            if (markObject(marks, ObjectStore.Type.TREE, id)) level.add(id);
+        }
+        for (String id : TreeScanner.forEach(markedCommits, this::rootTree).values()) {
+            if (markObject(marks, ObjectStore.Type.TREE, id)) level.add(id);
+        }
+        Set<String> markedBlobs = marks.get(ObjectStore.Type.BLOB);
+        for (String id : blobs) {
+            markObject(marks, ObjectStore.Type.BLOB, id);
+        }
+        while (!level.isEmpty()) {
+            Queue<String> next = new ConcurrentLinkedQueue<>();
+            TreeScanner.forEach(level, id -> {
+                byte[] contents = store.read(ObjectStore.Type.TREE, id);
+                if (contents == null) {
+                    throw error("Missing tree %s.", id);
+                }
+                Tree.forEachReference(contents, child -> {
+                    if (markObject(marks, ObjectStore.Type.TREE, child)) next.add(child);
+                }, blob -> markObject(marks, ObjectStore.Type.BLOB, blob));
+                return true;
+            });
+            level = new ArrayList<>(next);
+        }
+
+        // Chunks of the blobs, reading only their headers
+        for (String id : chunks) {
+            markObject(marks, ObjectStore.Type.CHUNK, id);
+        }
+        TreeScanner.forEach(new ArrayList<>(markedBlobs), id -> {
+            try (InputStream in = store.open(ObjectStore.Type.BLOB, id)) {
+                if (in == null) {
+                    throw error("Missing blob %s.", id);
+                }
+                for (String chunkId : Blob.chunkIds(in)) {
+                    markObject(marks, ObjectStore.Type.CHUNK, chunkId);
+                }
+            } catch (IOException e) {
+                throw error("Cannot read blob %s.", id);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Add object `id` to `marks` unless it is reachable already, return true if it was added.
+     */
+    private boolean markObject(Map<ObjectStore.Type, Set<String>> marks, ObjectStore.Type type, String id) {
+        return (marks == reachable || !isReachable(type, id)) && marks.get(type).add(id);
+    }
+
+    /**
+     * Return the id of the root tree of commit `id`. The tree of a commit of an older format,
+     * which lists its files itself, is stored first, as repacking re-encodes such commits with it.
+     */
+    private String rootTree(String id) {
+        byte[] contents = store.read(ObjectStore.Type.COMMIT, id);
+        if (contents == null) {
+            throw error("Missing commit %s.", id);
+        }
+        Commit cmt = Codec.isSerialized(contents) ? deserialize(contents, Commit.class) : Commit.decode(contents);
+        if (cmt.getStoredTreeId() != null) {
+            return cmt.getStoredTreeId();
+        }
+        Tree tree = cmt.getTree();
+        tree.save();
+        return tree.id();
+    }
+
+    /**
+     * Delete the commit graph and the commit index and build them again from the commits in the object store.
+     */
+    private static void rebuildCommitIndexes() throws IOException {
+        Files.deleteIfExists(Repository.GITLET_DIR.resolve(CommitGraph.COMMIT_GRAPH_FILE_NAME));
+        Path indexDir = Repository.GITLET_DIR.resolve(CommitIndex.COMMIT_INDEX_DIR_NAME);
+        if (Files.isDirectory(indexDir)) {
+            try (Stream<Path> files = Files.walk(indexDir)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        CommitGraph.unload();
+        CommitIndex.unload();
+        CommitGraph.local().save();
+        CommitIndex.local();
+    }
+
+    private static Map<ObjectStore.Type, Set<String>> newMarks() {
+        Map<ObjectStore.Type, Set<String>> marks = new EnumMap<>(ObjectStore.Type.class);
+        for (ObjectStore.Type type : ObjectStore.Type.values()) {
+            marks.put(type, ConcurrentHashMap.newKeySet());
+        }
+        return marks;
+    }
+
+    private static int count(Map<ObjectStore.Type, Set<String>> marks) {
+        int count = 0;
+        for (Set<String> ids : marks.values()) {
+            count += ids.size();
+        }
+        return count;
+    }
+
+    private static void report(String phase, long start) {
+        System.out.printf("%s in %.1f ms.%n", phase, (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Crash safety of commands. A command takes effect when the State file is replaced, atomically,
+ * see Utils.writeAtomically. Files written before, objects, packs and indexes, are not synced one by one:
+ * they are registered with written() and synced all at once by sync(), which saveState calls just before
+ * replacing State. So a command costs one round of syncs however many objects it writes,
+ * and State never refers to an object that may be lost in a crash.
+ * <p>
+ * Commands writing many objects or files (add, commit, merge, checkout, reset, fetch, pull, sparse-checkout)
+ * first write a journal, .gitlet/journal, and remove it once State is saved. A journal found by the next command means that
+ * the command was interrupted. If it was interrupted before replacing State, its writes are undone:
+ * loose objects written since the journal that were cut short are deleted, files of the commit index
+ * are truncated to their sizes at the start of the command, and the commit graph, which may list
+ * commits that were lost, is removed to be rebuilt.
+ * Working files are not restored, so an interrupted command that writes them is reported.
+ * <p>
+ * The journal is encoded with Codec as:
+ * command (string) | start time in milliseconds (varint) | SHA-1 of State (hash) |
+ * number of files (varint) | for each file of the commit index, name (string) | size (varint)
+ *
+ * @author Louis Lu
+ */
+class Journal {
+
+    static final String JOURNAL_FILE_NAME = "journal";
+
+    private static final int VERSION = 1;
+
+    /**
+     * Milliseconds subtracted from the start of a command when comparing modification times,
+     * for file systems keeping them in whole seconds.
+     */
+    private static final long MTIME_SLACK = 2000;
+
+    /**
+     * Files written by this command and not synced yet.
+     */
+    private static final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    private Journal() {
+    }
+
+    /**
+     * Register `file`, just written or renamed, to be synced by the next sync().
+     */
+    static void written(Path file) {
+        pending.add(file);
+    }
+
+    /**
+     * Sync all files registered since the last call, then the directories holding them.
+     * Files are synced in parallel, letting the file system commit them together.
+     */
+    static void sync() {
+        if (pending.isEmpty()) return;
+        List<Path> files = new ArrayList<>(pending);
+        pending.removeAll(files);
+        Set<Path> dirs = new HashSet<>();
+        for (Path file : files) {
+            dirs.add(file.getParent());
+        }
+        try {
+            files.parallelStream().forEach(Journal::forceUnchecked);
+            dirs.parallelStream().forEach(Journal::forceUnchecked);
+        } catch (IllegalStateException e) {
+            throw error("Cannot sync %s.", e.getMessage());
+        }
+    }
+
+    private static void forceUnchecked(Path file) {
+        try {
+            force(file);
+        } catch (NoSuchFileException e) {
+            // Deleted since it was written, nothing to keep
+        } catch (IOException e) {
+            throw new IllegalStateException(file.getFileName().toString());
+        }
+    }
+
+    /**
+     * Write the journal of `command`, which is about to change the repository.
+     */
+    static void begin(String command) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Codec.Writer writer = new Codec.Writer(out).header(Codec.JOURNAL, VERSION)
+                    .string(command)
+                    .varint(System.currentTimeMillis())
+                    .hash(sha1((Object) readContents(Repository.STATES_FILE)));
+            Map<String, Long> sizes = commitIndexSizes();
+            writer.varint(sizes.size());
+            for (Map.Entry<String, Long> size : sizes.entrySet()) {
+                writer.string(size.getKey()).varint(size.getValue());
+            }
+        } catch (IOException e) {
+            throw error("Cannot write %s.", JOURNAL_FILE_NAME);
+        }
+        writeAtomically(journalFile(), out.toByteArray());
+    }
+
+    /**
+     * Remove the journal once State is saved. If this is lost in a crash,
+     * recover() sees that State changed and only removes the journal again.
+     */
+    static void end() {
+        try {
+            Files.deleteIfExists(journalFile());
+        } catch (IOException e) {
+            throw error("Cannot remove %s.", JOURNAL_FILE_NAME);
+        }
+    }
+
+    /**
+     * Undo the writes of a command interrupted before saving State, if there is one.
+     */
+    static void recover() {
+        Path file = journalFile();
+        if (!checkFileExist(file)) return;
+        String command;
+        long startTime;
+        String stateId;
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        try {
+            Codec.Reader reader = new Codec.Reader(new ByteArrayInputStream(readContents(file)));
+            reader.header(Codec.JOURNAL, VERSION);
+            command = reader.string();
+            startTime = reader.varint();
+            stateId = reader.hash();
+            for (int i = reader.varintAsInt(); i > 0; i -= 1) {
+                sizes.put(reader.string(), reader.varint());
+            }
+        } catch (IOException e) {
+            // The journal itself is written atomically, so a partial one is not from gitlet
+            throw error("Corrupted %s.", JOURNAL_FILE_NAME);
+        }
+
+        if (stateId.equals(sha1((Object) readContents(Repository.STATES_FILE)))) {
+            try {
+                for (ObjectStore.Type type : ObjectStore.Type.values()) {
+                    deleteBroken(type, startTime);
+                }
+                Path indexDir = Repository.GITLET_DIR.resolve(CommitIndex.COMMIT_INDEX_DIR_NAME);
+                for (Map.Entry<String, Long> size : sizes.entrySet()) {
+                    try (FileChannel channel = FileChannel.open(indexDir.resolve(size.getKey()),
+                            StandardOpenOption.WRITE)) {
+                        channel.truncate(size.getValue());
+                    }
+                }
+                Files.deleteIfExists(Repository.GITLET_DIR.resolve(CommitGraph.COMMIT_GRAPH_FILE_NAME));
+            } catch (IOException e) {
+                throw error("Cannot recover from interrupted %s.", command);
+            }
+            if (!command.equals("add") && !command.equals("commit") && !command.equals("fetch")) {
+                System.err.printf("Recovered from an interrupted %s, working files may differ from HEAD.%n", command);
+            }
+        }
+        end();
+    }
+
+    /**
+     * Delete loose objects of `type` written since `time` that cannot be read in full. Complete ones are kept,
+     * as objects are shared and one written by an earlier command in the same second may be in use.
+     */
+    private static void deleteBroken(ObjectStore.Type type, long time) throws IOException {
+        ObjectStore store = ObjectStore.local();
+        for (String id : store.looseIds(type)) {
+            Path file = store.looseFile(type, id);
+            if (Files.getLastModifiedTime(file).toMillis() >= time - MTIME_SLACK
+                    && !store.isLooseIntact(type, id)) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Sizes of the append-only files of the commit index, by name.
+     */
+    private static Map<String, Long> commitIndexSizes() throws IOException {
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        Path indexDir = Repository.GITLET_DIR.resolve(CommitIndex.COMMIT_INDEX_DIR_NAME);
+        List<String> names = plainFilenamesIn(indexDir);
+        if (names != null) {
+            for (String name : names) {
+                sizes.put(name, Files.size(indexDir.resolve(name)));
+            }
+        }
+        return sizes;
+    }
+
+    private static Path journalFile() {
+        return Repository.GITLET_DIR.resolve(JOURNAL_FILE_NAME);
+    }
+}
@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Formats commits for `log` and `global-log` into a buffered writer, with a single date formatter
+ * shared by all commits. Output is written to the underlying stream when the 64 KiB buffer fills up,
+ * and the rest when flush() is called.
+ *
+ * @author Louis Lu
+ */
+class LogPrinter implements Flushable {
+
+    /**
+     * Time zone of the dates printed and parsed, fixed so that logs read the same on every machine.
+     */
+    static final ZoneId ZONE = ZoneId.of("GMT-08:00");
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH)
+            .withZone(ZONE);
+
+    private final PrintWriter out;
+    private final boolean oneline;
+
+    /**
+     * A printer writing into `out`, one line per commit if `oneline` is set.
+     */
+    LogPrinter(OutputStream out, boolean oneline) {
+        this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16));
+        this.oneline = oneline;
+    }
+
+    void print(Commit cmt) {
+        print(cmt.getId(), cmt.getMergedParentId(), cmt.getTimestamp(), cmt.getMessage());
+    }
+
+    void print(String id, String mergedParentId, long timestamp, String message) {
+        if (oneline) {
+            out.write(id, 0, 7);
+            out.print(' ');
+            out.println(message);
+            return;
+        }
+        out.println("===");
+        out.print("commit ");
+        out.println(id);
+        if (mergedParentId != null) {
+            out.print("Merge: ");
+            out.println(mergedParentId);
+        }
+        out.print("Date: ");
+        out.println(DATE_FORMAT.format(Instant.ofEpochMilli(timestamp)));
+        out.println(message);
+        out.println();
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+}
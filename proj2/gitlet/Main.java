@@ -4,6 +4,13 @@ import javax.naming.InitialContext;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.BiFunction;
 
 import static gitlet.Utils.*;
@@ -16,12 +23,31 @@ import static gitlet.Repository.*;
  */
 public class Main {
 
+    /**
+     * Print counters of object caches when the command is done, set by option --stats
+     */
+    static boolean printStats = false;
+
+    /**
+     * Print time taken by each phase of the command, set by option --verbose
+     */
+    static boolean verbose = false;
+
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
-     * <COMMAND> <OPERAND1> <OPERAND2> ...
+     * [OPTIONS] <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) throws IOException {
+        run(args);
+    }
+
+    /**
+     * Run the command of ARGS, printing the message of a command that fails, return false if it failed.
+     * Unlike exiting with the message, this returns, so that Daemon can run many commands.
+     */
+    static boolean run(String[] args) throws IOException {
         try {
+            args = parseOptions(args);
             if (args.length == 0) {
                 throw new GitletException("Please enter a command.");
             }
@@ -35,22 +61,31 @@ public class Main {
                     repo = new Repository();
                     saveState(repo);
                     break;
+                case "clone":
+                    // Start a Gitlet repository in current work directory as a copy of another
+                    checkGitletInit(false);
+                    if (args.length == 2) {
+                        repo = Repository.cloneFrom(args[1], false);
+                    } else if (args.length == 3 && args[1].equals("--shared")) {
+                        repo = Repository.cloneFrom(args[2], true);
+                    } else {
+                        throw new GitletException("Incorrect operands");
+                    }
+                    saveState(repo);
+                    break;
                 case "add":
                     checkGitletInit(true);
-                    validateNumArgs(args, 2, equally);
+                    validateNumArgs(args, 2, largerAndEqual);
                     repo = loadState();
-                    String fileName = args[1];
-                    if (!checkFileExist(fileName)) {
-                        throw new GitletException("File does not exist.");
-                    }
-                    // Does not consider "./fileName"
-                    repo.add(Paths.get(CWD, fileName));
+                    Journal.begin(firstArg);
+                    repo.add(Arrays.asList(args).subList(1, args.length));
                     saveState(repo);
                     break;
                 case "commit":
                     checkGitletInit(true);
                     validateNumArgs(args, 2, equally);
                     repo = loadState();
+                    Journal.begin(firstArg);
                     String message = args[1];
                     if (message.isBlank()) {
                         throw new GitletException("Please enter a commit message.");
@@ -68,6 +103,7 @@ public class Main {
                 case "checkout":
                     checkGitletInit(true);
                     repo = loadState();
+                    Journal.begin(firstArg);
                     handleCheckout(args, repo);
                     saveState(repo);
                     break;
@@ -82,14 +118,14 @@ public class Main {
                     checkGitletInit(true);
                     validateNumArgs(args, 2, equally);
                     repo = loadState();
+                    Journal.begin(firstArg);
                     repo.merge(args[1]);
                     saveState(repo);
                     break;
                 case "log":
                     checkGitletInit(true);
-                    validateNumArgs(args, 1, equally);
                     repo = loadState();
-                    repo.log();
+                    handleLog(args, repo);
                     break;
                 case "global-log":
                     checkGitletInit(true);
@@ -120,14 +156,269 @@ public class Main {
                     checkGitletInit(true);
                     validateNumArgs(args, 2, equally);
                     repo = loadState();
+                    Journal.begin(firstArg);
                     repo.reset(args[1]);
                     saveState(repo);
                     break;
+                case "diff":
+                    checkGitletInit(true);
+                    repo = loadState();
+                    handleDiff(args, repo);
+                    break;
+                case "add-remote":
+                    checkGitletInit(true);
+                    validateNumArgs(args, 3, equally);
+                    repo = loadState();
+                    repo.addRemote(args[1], args[2]);
+                    break;
+                case "rm-remote":
+                    checkGitletInit(true);
+                    validateNumArgs(args, 2, equally);
+                    repo = loadState();
+                    repo.removeRemote(args[1]);
+                    break;
+                case "fetch":
+                    checkGitletInit(true);
+                    validateNumArgs(args, 3, equally);
+                    repo = loadState();
+                    Journal.begin(firstArg);
+                    repo.fetch(args[1], args[2]);
+                    saveState(repo);
+                    break;
+                case "push":
+                    checkGitletInit(true);
+                    validateNumArgs(args, 3, equally);
+                    repo = loadState();
+                    repo.push(args[1], args[2]);
+                    break;
+                case "pull":
+                    checkGitletInit(true);
+                    validateNumArgs(args, 3, equally);
+                    repo = loadState();
+                    Journal.begin(firstArg);
+                    repo.pull(args[1], args[2]);
+                    saveState(repo);
+                    break;
+                case "sparse-checkout":
+                    checkGitletInit(true);
+                    validateNumArgs(args, 2, largerAndEqual);
+                    repo = loadState();
+                    handleSparseCheckout(args, repo);
+                    break;
+                case "repack":
+                    checkGitletInit(true);
+                    validateNumArgs(args, 1, equally);
+                    repo = loadState();
+                    repo.repack();
+                    break;
+                case "gc":
+                    checkGitletInit(true);
+                    repo = loadState();
+                    repo.gc(parseGracePeriod(args));
+                    break;
+                case "daemon":
+                    checkGitletInit(true);
+                    if (args.length == 1) {
+                        Daemon.serve();
+                    } else if (args.length == 2 && args[1].equals("stop")) {
+                        Daemon.stop();
+                    } else {
+                        throw new GitletException("Incorrect operands");
+                    }
+                    break;
                 default:
                     throw new GitletException("No command with that name exists.");
             }
         } catch (GitletException e) {
-            exitsWithMessage(e.getMessage());
+            // Failed checks leave the repository as it was, there is nothing to recover
+            Journal.end();
+            printStats();
+            message(e.getMessage());
+            return false;
+        }
+        printStats();
+        return true;
+    }
+
+    /**
+     * Set all options back to their defaults, before running another command in the same process.
+     */
+    static void resetOptions() {
+        printStats = false;
+        verbose = false;
+        TreeScanner.parallelism = TreeScanner.DEFAULT_PARALLELISM;
+        ObjectStore.compressor = Compressor.DEFLATE;
+    }
+
+    /**
+     * Apply options, which come before the command, and return ARGS without them.
+     */
+    static String[] parseOptions(String[] args) {
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("--"); i += 1) {
+            switch (args[i]) {
+                case "--stats":
+                    printStats = true;
+                    break;
+                case "--verbose":
+                    verbose = true;
+                    break;
+                default:
+                    if (args[i].startsWith("--jobs=")) {
+                        TreeScanner.parallelism = parseJobs(args[i].substring("--jobs=".length()));
+                        break;
+                    }
+                    if (args[i].startsWith("--compression=")) {
+                        Compressor compressor = Compressor.named(args[i].substring("--compression=".length()));
+                        if (compressor == null) {
+                            throw new GitletException("No compression with that name exists.");
+                        }
+                        ObjectStore.compressor = compressor;
+                        break;
+                    }
+                    throw new GitletException("No option with that name exists.");
+            }
+        }
+        return Arrays.copyOfRange(args, i, args.length);
+    }
+
+    private static int parseJobs(String value) {
+        try {
+            int jobs = Integer.parseInt(value);
+            if (jobs > 0) return jobs;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new GitletException("Number of jobs must be a positive integer.");
+    }
+
+    /**
+     * Print time elapsed since `start`, as given by System.nanoTime(), if option --verbose is set.
+     */
+    static void timing(String phase, long start) {
+        if (verbose) {
+            System.err.printf("%s: %.3f ms%n", phase, (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    static void printStats() {
+        if (printStats) {
+            ObjectCache.printStats(System.err);
+        }
+    }
+
+    /**
+     * Usage: gc [--prune=DAYS|now], return the grace period in milliseconds, see GarbageCollector.
+     */
+    static long parseGracePeriod(String[] args) {
+        if (args.length == 1) return GarbageCollector.DEFAULT_GRACE_PERIOD;
+        String option = "--prune=";
+        if (args.length > 2) {
+            throw new GitletException("Incorrect operands");
+        }
+        if (args[1].equals(option + "now")) return 0;
+        if (args[1].startsWith(option)) {
+            try {
+                long days = Long.parseLong(args[1].substring(option.length()));
+                if (days >= 0) return days * 24 * 60 * 60 * 1000;
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw new GitletException("Incorrect operands");
+    }
+
+    /**
+     * Usage: log [-n NUMBER] [--since DATE] [--oneline], where DATE is yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss
+     */
+    static void handleLog(String[] args, Repository repo) {
+        long limit = Long.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        boolean oneline = false;
+        for (int i = 1; i < args.length; i += 1) {
+            switch (args[i]) {
+                case "-n":
+                    validateNumArgs(args, i + 2, largerAndEqual);
+                    i += 1;
+                    try {
+                        limit = Long.parseLong(args[i]);
+                    } catch (NumberFormatException e) {
+                        throw new GitletException("Incorrect operands");
+                    }
+                    break;
+                case "--since":
+                    validateNumArgs(args, i + 2, largerAndEqual);
+                    i += 1;
+                    since = parseDate(args[i]);
+                    break;
+                case "--oneline":
+                    oneline = true;
+                    break;
+                default:
+                    throw new GitletException("Incorrect operands");
+            }
+        }
+        repo.log(limit, since, oneline);
+    }
+
+    /**
+     * Usage: diff [--cached] [COMMIT [COMMIT]], see Repository.diff
+     */
+    static void handleDiff(String[] args, Repository repo) throws IOException {
+        boolean cached = false;
+        List<String> revs = new ArrayList<>();
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--cached")) {
+                cached = true;
+            } else {
+                revs.add(args[i]);
+            }
+        }
+        if (revs.size() > 2 || (cached && revs.size() == 2)) {
+            throw new GitletException("Incorrect operands");
+        }
+        repo.diff(cached, revs);
+    }
+
+    /**
+     * Return milliseconds since the epoch of `date`, in the time zone of dates printed by log.
+     */
+    private static long parseDate(String date) {
+        ZoneId zone = LogPrinter.ZONE;
+        try {
+            if (date.contains("T")) {
+                return LocalDateTime.parse(date).atZone(zone).toInstant().toEpochMilli();
+            }
+            return LocalDate.parse(date).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new GitletException("Incorrect date " + date + ".");
+        }
+    }
+
+    /**
+     * Usage: sparse-checkout set PATTERN... | sparse-checkout disable | sparse-checkout list,
+     * see SparseCheckout
+     */
+    static void handleSparseCheckout(String[] args, Repository repo) throws IOException {
+        switch (args[1]) {
+            case "set":
+                validateNumArgs(args, 3, largerAndEqual);
+                Journal.begin(args[0]);
+                repo.sparseCheckout(Arrays.asList(args).subList(2, args.length));
+                saveState(repo);
+                break;
+            case "disable":
+                validateNumArgs(args, 2, equally);
+                Journal.begin(args[0]);
+                repo.sparseCheckout(List.of());
+                saveState(repo);
+                break;
+            case "list":
+                validateNumArgs(args, 2, equally);
+                repo.printSparseCheckout();
+                break;
+            default:
+                throw new GitletException("Incorrect operands");
         }
     }
 
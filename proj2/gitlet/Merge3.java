@@ -0,0 +1,129 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Three-way merge of files line by line, in the manner of diff3: both versions are diffed
+ * against their common ancestor, changes made by only one side, or made identically by both, are taken,
+ * and only overlapping changes that differ become conflicts, marked as
+ * <pre>
+ * <<<<<<< HEAD
+ * lines of the current branch
+ * =======
+ * lines of the given branch
+ * >>>>>>>
+ * </pre>
+ * The merged file is written into a stream as it is computed.
+ *
+ * @author Louis Lu
+ */
+class Merge3 {
+
+    private static final byte[] START_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MIDDLE_MARKER = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    private Merge3() {
+    }
+
+    /**
+     * Merge `ours` and `theirs`, both derived from `base`, into `out`. Return true if there was a conflict.
+     */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        Diff.Interner interner = new Diff.Interner();
+        Diff.Lines baseLines = interner.split(base);
+        Diff.Lines ourLines = interner.split(ours);
+        Diff.Lines theirLines = interner.split(theirs);
+        List<Diff.Edit> ourEdits = Diff.diff(baseLines, ourLines);
+        List<Diff.Edit> theirEdits = Diff.diff(baseLines, theirLines);
+
+        boolean conflict = false;
+        int basePos = 0;
+        int i = 0;
+        int j = 0;
+        while (i < ourEdits.size() || j < theirEdits.size()) {
+            // Start a group with the first remaining edit, then add edits of either side touching it
+            int groupStart = Math.min(
+                    i < ourEdits.size() ? ourEdits.get(i).aStart : Integer.MAX_VALUE,
+                    j < theirEdits.size() ? theirEdits.get(j).aStart : Integer.MAX_VALUE);
+            int groupEnd = groupStart;
+            int firstOurs = i;
+            int firstTheirs = j;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (i < ourEdits.size() && ourEdits.get(i).aStart <= groupEnd) {
+                    groupEnd = Math.max(groupEnd, ourEdits.get(i).aEnd);
+                    i += 1;
+                    grown = true;
+                }
+                if (j < theirEdits.size() && theirEdits.get(j).aStart <= groupEnd) {
+                    groupEnd = Math.max(groupEnd, theirEdits.get(j).aEnd);
+                    j += 1;
+                    grown = true;
+                }
+            }
+
+            baseLines.write(out, basePos, groupStart);
+            basePos = groupEnd;
+
+            int ourStart = map(ourEdits, firstOurs, groupStart);
+            int ourEnd = map(ourEdits, i, groupEnd);
+            int theirStart = map(theirEdits, firstTheirs, groupStart);
+            int theirEnd = map(theirEdits, j, groupEnd);
+            if (firstTheirs == j) {
+                ourLines.write(out, ourStart, ourEnd);
+            } else if (firstOurs == i
+                    || ourLines.rangeEquals(ourStart, ourEnd, theirLines, theirStart, theirEnd)) {
+                theirLines.write(out, theirStart, theirEnd);
+            } else {
+                conflict = true;
+                out.write(START_MARKER);
+                writeSide(out, ourLines, ourStart, ourEnd);
+                out.write(MIDDLE_MARKER);
+                writeSide(out, theirLines, theirStart, theirEnd);
+                out.write(END_MARKER);
+            }
+        }
+        baseLines.write(out, basePos, baseLines.size());
+        return conflict;
+    }
+
+    /**
+     * Write a conflict of whole files, for a file deleted on one side and changed on the other.
+     */
+    static void conflict(byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        Diff.Interner interner = new Diff.Interner();
+        Diff.Lines ourLines = interner.split(ours);
+        Diff.Lines theirLines = interner.split(theirs);
+        out.write(START_MARKER);
+        writeSide(out, ourLines, 0, ourLines.size());
+        out.write(MIDDLE_MARKER);
+        writeSide(out, theirLines, 0, theirLines.size());
+        out.write(END_MARKER);
+    }
+
+    /**
+     * Write lines [from, to) of one side of a conflict, ending the last one with a newline
+     * so that the next marker starts a line.
+     */
+    private static void writeSide(OutputStream out, Diff.Lines lines, int from, int to) throws IOException {
+        lines.write(out, from, to);
+        if (to == lines.size() && to > from && lines.missingFinalNewline()) {
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Return the line of a side matching line `basePos` of the base, which is not inside
+     * any edit of that side; `before` is the number of `edits` that end at or before it.
+     */
+    private static int map(List<Diff.Edit> edits, int before, int basePos) {
+        if (before == 0) return basePos;
+        Diff.Edit last = edits.get(before - 1);
+        return last.bEnd + (basePos - last.aEnd);
+    }
+}
@@ -0,0 +1,92 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache of decoded objects keyed by their SHA-1 id, bounded by the total size of the objects it holds.
+ * The least recently used objects are evicted first. Every cache counts its hits, misses and evictions,
+ * which `gitlet --stats COMMAND` prints once the command is done.
+ * <p>
+ * Cached objects are shared, callers must not modify them.
+ *
+ * @author Louis Lu
+ */
+class ObjectCache<V> {
+
+    /**
+     * All caches created in this process, in order of creation.
+     */
+    private static final List<ObjectCache<?>> CACHES = new ArrayList<>();
+
+    private final String name;
+    private final long maxBytes;
+    private final ToLongFunction<V> sizeOf;
+    private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * A cache called `name` holding objects up to `maxBytes`, as measured by `sizeOf`.
+     */
+    ObjectCache(String name, long maxBytes, ToLongFunction<V> sizeOf) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.sizeOf = sizeOf;
+        CACHES.add(this);
+    }
+
+    /**
+     * Return the object `id`, or null if it is not cached.
+     */
+    synchronized V get(String id) {
+        V value = entries.get(id);
+        if (value == null) {
+            misses += 1;
+        } else {
+            hits += 1;
+        }
+        return value;
+    }
+
+    /**
+     * Cache `value` as object `id`, evicting least recently used objects to make room.
+     * An object larger than the whole cache is not cached.
+     */
+    synchronized void put(String id, V value) {
+        long size = sizeOf.applyAsLong(value);
+        if (size > maxBytes) return;
+        V old = entries.put(id, value);
+        bytes += size - (old == null ? 0 : sizeOf.applyAsLong(old));
+        while (bytes > maxBytes) {
+            Map.Entry<String, V> eldest = entries.entrySet().iterator().next();
+            bytes -= sizeOf.applyAsLong(eldest.getValue());
+            entries.remove(eldest.getKey());
+            evictions += 1;
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Print counters of all caches on `out`.
+     */
+    static void printStats(PrintStream out) {
+        for (ObjectCache<?> cache : CACHES) {
+            synchronized (cache) {
+                out.printf("%s cache: %d hits, %d misses, %d evictions, %d objects, %d bytes%n",
+                        cache.name, cache.hits, cache.misses, cache.evictions, cache.entries.size(), cache.bytes);
+            }
+        }
+    }
+}
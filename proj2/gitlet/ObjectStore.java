@@ -0,0 +1,840 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Storage of gitlet objects (commits, trees, blobs and chunks of large blobs) inside a .gitlet directory.
+ * An object is first written "loose", as a single file in the directory of its type, in a subdirectory
+ * named by the first two hex digits of its id, the file being named by the other 38:
+ * .gitlet
+ * ├── Blobs
+ * │         ├── 9d
+ * │         │         └── 4cc50909a76fddee78aa3e1109984797c0a6fe
+ * │         └── ...
+ * ├── Chunks // Pieces of large files shared between their revisions, see Blob and Chunker
+ * ├── Commits
+ * ├── Trees
+ * ├── Packs  // Loose objects folded by `gitlet repack`, see PackFile
+ * └── tmp    // Loose objects being written, before their id is known
+ * so that no directory holds more than 256 subdirectories, or a 256th of the loose objects of a type.
+ * Loose objects written before, directly in the directory of their type, are moved into
+ * subdirectories the first time the store of the repository in CWD looks for a loose object.
+ * Remotes and alternates are never rewritten that way, their loose objects are read in either layout.
+ * Reading an object checks the packs first, then the loose files, then the stores of other repositories
+ * listed in .gitlet/alternates, one path of a .gitlet directory per line, absolute or relative to .gitlet.
+ * A repository made by `gitlet clone --shared` reads the objects of its source that way instead of copying them.
+ * Alternates of an alternate are not read, the clone lists them itself. An object about to be written
+ * that is a loose file of an alternate is hard-linked instead, so that the repository keeps the objects
+ * it uses at no cost in disk space.
+ * <p>
+ * A loose file is "GLZ" | code of its Compressor (byte) | compressed contents.
+ * Loose files written before compression was introduced hold the plain contents.
+ *
+ * @author Louis Lu
+ */
+class ObjectStore implements Closeable {
+
+    /**
+     * Kinds of objects, `code` is the type recorded in packs.
+     */
+    enum Type {
+        COMMIT(1, "Commits"), BLOB(2, "Blobs"), TREE(3, "Trees"), CHUNK(4, "Chunks");
+
+        final int code;
+        final String dirName;
+
+        Type(int code, String dirName) {
+            this.code = code;
+            this.dirName = dirName;
+        }
+    }
+
+    static final String PACKS_DIR_NAME = "Packs";
+    static final String TMP_DIR_NAME = "tmp";
+    static final String ALTERNATES_FILE_NAME = "alternates";
+
+    private static final byte[] LOOSE_MAGIC = {'G', 'L', 'Z'};
+
+    /**
+     * Number of hex digits of an id naming the subdirectory of its loose file.
+     */
+    private static final int FANOUT_LENGTH = 2;
+
+    /**
+     * Codec compressing objects written from now on, set by option --compression=NAME.
+     */
+    static Compressor compressor = Compressor.DEFLATE;
+
+    /**
+     * Number of previous revisions of a file tried as delta bases when repacking a blob.
+     */
+    private static final int DELTA_WINDOW = 10;
+
+    private static ObjectStore local;
+
+    private final Path gitletDir;
+    private final Path packsDir;
+    private final Path tmpDir;
+
+    /**
+     * Packs in `packsDir`, opened the first time an object is looked up.
+     */
+    private List<PackFile> packs;
+
+    /**
+     * Stores of the alternates, read the first time an object is not found here, empty for an alternate itself.
+     */
+    private List<ObjectStore> alternates;
+
+    /**
+     * Whether loose objects written before are moved into subdirectories, see migrateLayout().
+     * Only the store of the repository in CWD is migrated, the stores of remotes and alternates
+     * are read in either layout and left as they are.
+     */
+    private final boolean migrating;
+
+    /**
+     * Whether loose objects are known to be in subdirectories, see migrateLayout().
+     */
+    private volatile boolean fanout;
+
+    /**
+     * The store of the repository in `gitletDir`, another one than the repository in CWD.
+     */
+    ObjectStore(Path gitletDir) {
+        this(gitletDir, null, false);
+    }
+
+    private ObjectStore(Path gitletDir, List<ObjectStore> alternates, boolean migrating) {
+        this.gitletDir = gitletDir;
+        this.packsDir = gitletDir.resolve(PACKS_DIR_NAME);
+        this.tmpDir = gitletDir.resolve(TMP_DIR_NAME);
+        this.alternates = alternates;
+        this.migrating = migrating;
+    }
+
+    /**
+     * The object store of the repository in CWD.
+     */
+    static synchronized ObjectStore local() {
+        if (local == null) {
+            local = new ObjectStore(Repository.GITLET_DIR, null, true);
+        }
+        return local;
+    }
+
+    /**
+     * Drop the store of the repository in CWD with its list of packs, so that the next call
+     * of local() lists packs again. Cached objects are kept, as objects never change.
+     */
+    static synchronized void unload() {
+        if (local != null) {
+            local.close();
+            local = null;
+        }
+    }
+
+    /**
+     * Close the packs opened by this store and by its alternates. The store may still be used,
+     * packs are opened again when needed.
+     */
+    @Override
+    public synchronized void close() {
+        if (packs != null) {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+            packs = null;
+        }
+        if (alternates != null) {
+            for (ObjectStore alternate : alternates) {
+                alternate.close();
+            }
+        }
+    }
+
+    /**
+     * Return the contents of object `id`, or null if there is no such object.
+     */
+    byte[] read(Type type, String id) {
+        if (id == null) return null;
+        for (PackFile pack : packs()) {
+            byte[] contents = pack.read(id);
+            if (contents != null) return contents;
+        }
+        try (InputStream in = openLoose(type, id)) {
+            if (in != null) return in.readAllBytes();
+        } catch (IOException e) {
+            throw error("Cannot read object %s.", id);
+        }
+        for (ObjectStore alternate : alternates()) {
+            byte[] contents = alternate.read(type, id);
+            if (contents != null) return contents;
+        }
+        return null;
+    }
+
+    /**
+     * Return a stream of the contents of object `id`, or null if there is no such object.
+     * Unlike read(), a loose object is never loaded into memory as a whole.
+     */
+    InputStream open(Type type, String id) throws IOException {
+        if (id == null) return null;
+        for (PackFile pack : packs()) {
+            byte[] contents = pack.read(id);
+            if (contents != null) return new ByteArrayInputStream(contents);
+        }
+        InputStream in = openLoose(type, id);
+        if (in != null) return in;
+        for (ObjectStore alternate : alternates()) {
+            in = alternate.open(type, id);
+            if (in != null) return in;
+        }
+        return null;
+    }
+
+    private InputStream openLoose(Type type, String id) throws IOException {
+        InputStream in;
+        try {
+            in = new BufferedInputStream(Files.newInputStream(looseFile(type, id)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        in.mark(LOOSE_MAGIC.length + 1);
+        byte[] header = in.readNBytes(LOOSE_MAGIC.length + 1);
+        if (header.length == LOOSE_MAGIC.length + 1 && Arrays.equals(header, 0, LOOSE_MAGIC.length,
+                LOOSE_MAGIC, 0, LOOSE_MAGIC.length)) {
+            return Compressor.forCode(header[LOOSE_MAGIC.length]).decompress(in);
+        }
+        in.reset();
+        return in;
+    }
+
+    /**
+     * Return true if loose object `id` is missing or can be read in full,
+     * false for one cut short by a crash before it was synced.
+     */
+    boolean isLooseIntact(Type type, String id) {
+        try (InputStream in = openLoose(type, id)) {
+            return in == null || in.readAllBytes().length > 0;
+        } catch (IOException | GitletException e) {
+            return false;
+        }
+    }
+
+    boolean contains(Type type, String id) {
+        if (containsHere(type, id)) return true;
+        for (ObjectStore alternate : alternates()) {
+            if (alternate.contains(type, id)) return true;
+        }
+        return false;
+    }
+
+    private boolean containsHere(Type type, String id) {
+        for (PackFile pack : packs()) {
+            if (pack.contains(id)) return true;
+        }
+        return checkFileExist(looseFile(type, id));
+    }
+
+    /**
+     * Return true if object `id` is stored, hard-linking it from an alternate where it is a loose file.
+     */
+    private boolean isStored(Type type, String id) throws IOException {
+        if (containsHere(type, id)) return true;
+        for (ObjectStore alternate : alternates()) {
+            Path loose = alternate.looseFile(type, id);
+            if (checkFileExist(loose) && link(loose, looseFile(type, id))) {
+                return true;
+            }
+            if (alternate.contains(type, id)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Write object `id` as a loose file. If the object is already stored, do nothing.
+     */
+    void write(Type type, String id, byte[] contents) {
+        try {
+            if (isStored(type, id)) return;
+        } catch (IOException e) {
+            throw error("Cannot write object %s.", id);
+        }
+        try (LooseWriter writer = newLooseObject()) {
+            writer.stream().write(contents);
+            writer.commit(type, id);
+        } catch (IOException e) {
+            throw error("Cannot write object %s.", id);
+        }
+    }
+
+    /**
+     * Replace the loose object `id`, stored in an older format, by `contents`.
+     * Packed objects are rewritten by repack instead.
+     */
+    void migrate(Type type, String id, byte[] contents) {
+        Path loose = looseFile(type, id);
+        if (!checkFileExist(loose)) return;
+        try (LooseWriter writer = newLooseObject()) {
+            writer.stream().write(contents);
+            writer.publish(loose, true);
+        } catch (IOException e) {
+            throw error("Cannot migrate object %s.", id);
+        }
+    }
+
+    /**
+     * Start writing a loose object whose id is not known yet.
+     */
+    LooseWriter newLooseObject() throws IOException {
+        return new LooseWriter();
+    }
+
+    /**
+     * A loose object being compressed into a temporary file, which is moved in place by commit()
+     * once its id is known. Closing the writer without committing discards the object.
+     */
+    class LooseWriter implements Closeable {
+        private final Path tempFile;
+        private final OutputStream out;
+        private boolean committed;
+
+        private LooseWriter() throws IOException {
+            Files.createDirectories(tmpDir);
+            tempFile = Files.createTempFile(tmpDir, "obj-", null);
+            OutputStream file = new BufferedOutputStream(Files.newOutputStream(tempFile));
+            file.write(LOOSE_MAGIC);
+            file.write(compressor.code());
+            out = compressor.compress(file);
+        }
+
+        /**
+         * Stream that the contents of the object are written to.
+         */
+        OutputStream stream() {
+            return out;
+        }
+
+        /**
+         * Finish the object and atomically rename it to `id`. If object `id` is already stored, discard this one.
+         */
+        void commit(Type type, String id) throws IOException {
+            if (isStored(type, id)) {
+                close();
+                return;
+            }
+            publish(looseFile(type, id), false);
+        }
+
+        private void publish(Path target, boolean replace) throws IOException {
+            out.close();
+            committed = true;
+            Files.createDirectories(target.getParent());
+            if (replace) {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Journal.written(target);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Start a pack of new objects, for commands storing many objects at once: writing one file
+     * costs much less than writing a loose file per object. Objects are read from it once it is added.
+     */
+    PackFile.Writer newPack() throws IOException {
+        return new PackFile.Writer(packsDir);
+    }
+
+    /**
+     * Make objects of `pack`, just written with newPack(), readable.
+     */
+    synchronized void addPack(PackFile pack) {
+        packs().add(pack);
+    }
+
+    /**
+     * Return ids of all objects of `type`, packed, loose or in alternates, in ascending order.
+     */
+    List<String> list(Type type) {
+        TreeSet<String> ids = new TreeSet<>(listHere(type));
+        for (ObjectStore alternate : alternates()) {
+            ids.addAll(alternate.list(type));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Like list(), leaving out objects of alternates.
+     */
+    List<String> listHere(Type type) {
+        TreeSet<String> ids = new TreeSet<>(looseIds(type));
+        for (PackFile pack : packs()) {
+            ids.addAll(pack.ids(type));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Return ids of objects of `type` stored here that were written at or after `time`, in milliseconds
+     * since the epoch, leaving out objects of alternates. A packed object is as old as its pack.
+     */
+    List<String> listSince(Type type, long time) throws IOException {
+        TreeSet<String> ids = new TreeSet<>();
+        for (PackFile pack : packs()) {
+            if (modifiedSince(pack.getPath(), time)) {
+                ids.addAll(pack.ids(type));
+            }
+        }
+        for (String id : looseIds(type)) {
+            if (modifiedSince(looseFile(type, id), time)) {
+                ids.add(id);
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private static boolean modifiedSince(Path file, long time) throws IOException {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() >= time;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the number of bytes taken by the loose objects and packs stored here.
+     */
+    long diskUsage() throws IOException {
+        long size = 0;
+        List<Path> dirs = new ArrayList<>(List.of(packsDir));
+        for (Type type : Type.values()) {
+            dirs.add(gitletDir.resolve(type.dirName));
+        }
+        for (Path dir : dirs) {
+            if (!Files.isDirectory(dir)) continue;
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                    size += Files.size(file);
+                }
+            }
+        }
+        return size;
+    }
+
+    /* ALTERNATES */
+
+    private synchronized List<ObjectStore> alternates() {
+        if (alternates == null) {
+            alternates = new ArrayList<>();
+            for (Path dir : readAlternates(gitletDir)) {
+                alternates.add(new ObjectStore(dir, List.of(), false));
+            }
+        }
+        return alternates;
+    }
+
+    /**
+     * Return the absolute paths of the alternates of the repository in `gitletDir`.
+     */
+    static List<Path> readAlternates(Path gitletDir) {
+        List<Path> dirs = new ArrayList<>();
+        Path file = gitletDir.resolve(ALTERNATES_FILE_NAME);
+        if (!Files.exists(file)) return dirs;
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    dirs.add(gitletDir.resolve(line.strip()).toAbsolutePath().normalize());
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot read %s.", ALTERNATES_FILE_NAME);
+        }
+        return dirs;
+    }
+
+    static void writeAlternates(Path gitletDir, List<Path> dirs) {
+        StringBuilder contents = new StringBuilder();
+        for (Path dir : dirs) {
+            contents.append(dir.toAbsolutePath().normalize()).append('\n');
+        }
+        writeAtomically(gitletDir.resolve(ALTERNATES_FILE_NAME), contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Hard-link the objects stored in the repository in `sourceDir`, loose or packed, into this store,
+     * copying them if they are on another file system. Objects of its alternates are left out.
+     */
+    void linkAll(Path sourceDir) throws IOException {
+        for (Path file : filesIn(sourceDir.resolve(PACKS_DIR_NAME))) {
+            // Packs being written are left out, only published ones are complete
+            if (file.getFileName().toString().startsWith("tmp-")) continue;
+            linkOrCopy(file, packsDir.resolve(file.getFileName()));
+        }
+        for (Type type : Type.values()) {
+            Path source = sourceDir.resolve(type.dirName);
+            for (Path file : filesIn(source)) {
+                // Loose files of the source may be in subdirectories or not
+                Path relative = source.relativize(file);
+                linkOrCopy(file, looseFile(type, relative.toString().replace(File.separator, "")));
+            }
+        }
+        close();
+    }
+
+    private static List<Path> filesIn(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            return walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        if (!link(source, target)) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            Journal.written(target);
+        }
+    }
+
+    /**
+     * Hard-link `source` as `target`, return false if links are not supported between them
+     * or `source` is gone. An existing `target` is kept, as objects never change.
+     */
+    private static boolean link(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            return false;
+        }
+        Journal.written(target);
+        return true;
+    }
+
+    /**
+     * Fold all loose objects and existing packs into a single new pack,
+     * then delete the loose files and the old packs.
+     * Return the number of objects in the new pack.
+     */
+    int repack() throws IOException {
+        return repack((type, id) -> true, (type, id) -> false);
+    }
+
+    /**
+     * Like repack(), leaving out of the new pack the objects for which `keep` is false. Of these,
+     * the ones for which `loosen` is true are left as loose files, as old as the file or pack they were in,
+     * and the others are deleted. The trees of Java-serialized commits that are kept must have been stored.
+     */
+    int repack(BiPredicate<Type, String> keep, BiPredicate<Type, String> loosen) throws IOException {
+        // Trees of commits still Java-serialized are written first, as re-encoding these commits refers to them
+        for (String id : listHere(Type.COMMIT)) {
+            byte[] contents = read(Type.COMMIT, id);
+            if (Codec.isSerialized(contents) && keep.test(Type.COMMIT, id)) {
+                deserialize(contents, Commit.class).getTree().save();
+            }
+        }
+
+        List<PackFile> oldPacks = packs();
+        boolean hasLoose = false;
+        boolean changed = false;
+        Map<String, Type> objects = new TreeMap<>();
+        for (Type type : Type.values()) {
+            Set<String> loose = new HashSet<>(looseIds(type));
+            // Objects of alternates stay there
+            for (String id : listHere(type)) {
+                if (keep.test(type, id)) {
+                    objects.put(id, type);
+                    hasLoose = hasLoose || loose.contains(id);
+                } else if (!loose.contains(id) || !loosen.test(type, id)) {
+                    // To be deleted, or loosened out of a pack
+                    changed = true;
+                }
+            }
+        }
+        if (!hasLoose && oldPacks.size() <= 1 && !changed) {
+            return objects.size();
+        }
+
+        PackFile.Writer writer = new PackFile.Writer(packsDir);
+        List<String> blobs = new ArrayList<>();
+        for (Map.Entry<String, Type> entry : objects.entrySet()) {
+            if (entry.getValue() == Type.BLOB) {
+                blobs.add(entry.getKey());
+            } else {
+                writer.add(entry.getKey(), entry.getValue(),
+                        currentFormat(entry.getValue(), read(entry.getValue(), entry.getKey())));
+            }
+        }
+        addBlobs(writer, blobs);
+        PackFile newPack = writer.finish();
+        for (PackFile pack : oldPacks) {
+            loosen(pack, keep, loosen);
+        }
+        // The new pack and the loosened objects must be on disk before the objects they replace are deleted
+        Journal.sync();
+        if (newPack == null) {
+            // Nothing is kept
+            for (PackFile pack : oldPacks) {
+                pack.delete();
+            }
+            deleteLoose(keep, loosen);
+            packs = new ArrayList<>();
+            return 0;
+        }
+        for (PackFile pack : oldPacks) {
+            if (!pack.getPath().equals(newPack.getPath())) {
+                pack.delete();
+            } else {
+                // The same objects as the new pack, which replaces it
+                pack.close();
+            }
+        }
+        deleteLoose(keep, loosen);
+        packs = new ArrayList<>(List.of(newPack));
+        return objects.size();
+    }
+
+    /**
+     * Write the objects of `pack` that are to be loosened as loose files with the modification time of `pack`.
+     */
+    private void loosen(PackFile pack, BiPredicate<Type, String> keep, BiPredicate<Type, String> loosen)
+            throws IOException {
+        FileTime time = Files.getLastModifiedTime(pack.getPath());
+        for (Type type : Type.values()) {
+            for (String id : pack.ids(type)) {
+                Path loose = looseFile(type, id);
+                if (keep.test(type, id) || !loosen.test(type, id) || checkFileExist(loose)) continue;
+                try (LooseWriter writer = newLooseObject()) {
+                    writer.stream().write(pack.read(id));
+                    writer.publish(loose, false);
+                }
+                Files.setLastModifiedTime(loose, time);
+            }
+        }
+    }
+
+    private void deleteLoose(BiPredicate<Type, String> keep, BiPredicate<Type, String> loosen) throws IOException {
+        for (Type type : Type.values()) {
+            for (String id : looseIds(type)) {
+                if (keep.test(type, id) || !loosen.test(type, id)) {
+                    Files.deleteIfExists(looseFile(type, id));
+                }
+            }
+        }
+    }
+
+    /**
+     * Add blobs `ids` to the pack being written. A blob is stored as a delta against one of
+     * the DELTA_WINDOW revisions of the same file added just before it, if that saves at least half of its size.
+     */
+    private void addBlobs(PackFile.Writer writer, List<String> ids) throws IOException {
+        Map<String, String> fileNames = new HashMap<>();
+        Map<String, Integer> sizes = new HashMap<>();
+        for (String id : ids) {
+            byte[] contents = read(Type.BLOB, id);
+            fileNames.put(id, Blob.readFileName(contents));
+            sizes.put(id, contents.length);
+        }
+        // Revisions of the same file come together, larger ones first so that most deltas only remove bytes
+        ids.sort(Comparator.comparing((String id) -> fileNames.get(id))
+                .thenComparing(sizes::get, Comparator.reverseOrder()));
+
+        Map<String, Integer> depths = new HashMap<>();
+        Deque<String> window = new ArrayDeque<>();
+        Map<String, byte[]> windowContents = new HashMap<>();
+        String fileName = null;
+        for (String id : ids) {
+            byte[] contents = currentFormat(Type.BLOB, read(Type.BLOB, id));
+            if (!fileNames.get(id).equals(fileName)) {
+                fileName = fileNames.get(id);
+                window.clear();
+                windowContents.clear();
+            }
+
+            String bestBase = null;
+            byte[] bestDelta = null;
+            for (String baseId : window) {
+                if (depths.get(baseId) >= PackFile.MAX_DELTA_DEPTH) continue;
+                byte[] delta = Delta.create(windowContents.get(baseId), contents);
+                if (delta.length < contents.length / 2
+                        && (bestDelta == null || delta.length < bestDelta.length)) {
+                    bestBase = baseId;
+                    bestDelta = delta;
+                }
+            }
+            if (bestBase == null) {
+                writer.add(id, Type.BLOB, contents);
+                depths.put(id, 0);
+            } else {
+                writer.addDelta(id, Type.BLOB, bestBase, bestDelta);
+                depths.put(id, depths.get(bestBase) + 1);
+            }
+
+            window.addFirst(id);
+            windowContents.put(id, contents);
+            if (window.size() > DELTA_WINDOW) {
+                windowContents.remove(window.removeLast());
+            }
+        }
+    }
+
+    /**
+     * Return `contents` of an object of `type` re-encoded with Codec if it was Java-serialized.
+     */
+    private static byte[] currentFormat(Type type, byte[] contents) {
+        if (!Codec.isSerialized(contents)) return contents;
+        if (type == Type.COMMIT) {
+            return deserialize(contents, Commit.class).encode();
+        }
+        return Blob.decode(contents).encode();
+    }
+
+    private synchronized List<PackFile> packs() {
+        if (packs == null) {
+            packs = PackFile.openAll(packsDir);
+        }
+        return packs;
+    }
+
+    /**
+     * Return the path of loose object `id`, where it is to be written if it does not exist.
+     */
+    Path looseFile(Type type, String id) {
+        Path dir = gitletDir.resolve(type.dirName);
+        Path file = fanoutFile(dir, id);
+        if (migrating) {
+            migrateLayout();
+            return file;
+        }
+        Path flat = dir.resolve(id);
+        return !Files.exists(file) && Files.isRegularFile(flat) ? flat : file;
+    }
+
+    private static Path fanoutFile(Path dir, String id) {
+        if (id.length() <= FANOUT_LENGTH) {
+            // Not an id, which no loose file is named by
+            return dir.resolve(id);
+        }
+        return dir.resolve(id.substring(0, FANOUT_LENGTH)).resolve(id.substring(FANOUT_LENGTH));
+    }
+
+    /**
+     * Return ids of the loose objects of `type`, in ascending order.
+     */
+    List<String> looseIds(Type type) {
+        if (migrating) migrateLayout();
+        List<String> ids = new ArrayList<>();
+        Path dir = gitletDir.resolve(type.dirName);
+        if (!Files.isDirectory(dir)) return ids;
+        List<String> prefixes = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path entry : entries) {
+                prefixes.add(entry.getFileName().toString());
+            }
+        } catch (IOException e) {
+            throw error("Cannot list %s.", type.dirName);
+        }
+        Collections.sort(prefixes);
+        for (String prefix : prefixes) {
+            if (prefix.length() != FANOUT_LENGTH) continue;
+            for (String name : plainFilenamesIn(dir.resolve(prefix))) {
+                ids.add(prefix + name);
+            }
+        }
+        if (!migrating) {
+            // Loose objects of the older layout, left where they are in another repository
+            boolean flat = false;
+            for (String name : plainFilenamesIn(dir)) {
+                if (name.length() > FANOUT_LENGTH) {
+                    ids.add(name);
+                    flat = true;
+                }
+            }
+            if (flat) Collections.sort(ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Move loose objects stored directly in the directory of their type into their subdirectories.
+     * Only the directories of the types are listed, which hold at most 256 subdirectories once moved.
+     * The moves are registered with Journal, to be synced with the rest of the command.
+     */
+    private void migrateLayout() {
+        if (fanout) return;
+        synchronized (this) {
+            if (fanout) return;
+            for (Type type : Type.values()) {
+                Path dir = gitletDir.resolve(type.dirName);
+                if (!Files.isDirectory(dir)) continue;
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, Files::isRegularFile)) {
+                    for (Path entry : entries) {
+                        String id = entry.getFileName().toString();
+                        if (id.length() <= FANOUT_LENGTH) continue;
+                        Path target = fanoutFile(dir, id);
+                        Files.createDirectories(target.getParent());
+                        try {
+                            Files.move(entry, target, StandardCopyOption.ATOMIC_MOVE);
+                            Journal.written(target);
+                            Journal.written(target.getParent());
+                        } catch (FileAlreadyExistsException e) {
+                            // Moved by another command, objects never change
+                            Files.deleteIfExists(entry);
+                        } catch (NoSuchFileException e) {
+                            // Moved by another command
+                        }
+                    }
+                } catch (IOException e) {
+                    throw error("Cannot move loose objects of %s into subdirectories.", type.dirName);
+                }
+            }
+            fanout = true;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * A pack of gitlet objects, stored as two files in .gitlet/Packs:
+ * - pack-XXXX.pack holds the objects, appended one after another
+ *   header: "PACK" | version (int) | number of objects (int)
+ *   entry:  type code (byte) | compressor code (byte) | length (int) | compressed contents
+ *   delta:  type code | 0x80 (byte) | compressor code (byte) | length (int)
+ *           | compressed (id of the base (20 bytes) | delta against the base)
+ * - pack-XXXX.idx holds the object ids of the pack, sorted in ascending order
+ *   header: "PIDX" | version (int) | number of objects (int)
+ *   fanout: 256 ints, the i-th one is the number of ids whose first byte is at most i
+ *   ids:    object ids, 20 bytes each
+ *   offsets: offset of each object's entry in the .pack file (long), in the same order as ids
+ * A pack is only visible to readers once its index exists, so the index is always written last.
+ * <p>
+ * The index is memory-mapped, a lookup narrows the range of ids with the fanout table and binary
+ * searches it, comparing the hexadecimal id with the raw bytes in place.
+ * <p>
+ * A delta entry stores an object as a Delta against another object of the same pack, at most
+ * MAX_DELTA_DEPTH deltas away from a full object. Objects rebuilt while resolving deltas are kept
+ * in a small cache, as revisions of one file tend to be read one after another.
+ *
+ * @author Louis Lu
+ */
+class PackFile {
+
+    static final String PACK_SUFFIX = ".pack";
+    static final String INDEX_SUFFIX = ".idx";
+
+    /**
+     * Longest chain of deltas, from an object to the full object it is eventually based on.
+     */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    private static final int VERSION = 3;
+    private static final int DELTA_FLAG = 0x80;
+    private static final int INDEX_VERSION = 2;
+    private static final byte[] PACK_MAGIC = {'P', 'A', 'C', 'K'};
+    private static final byte[] INDEX_MAGIC = {'P', 'I', 'D', 'X'};
+    private static final int HEADER_LENGTH = 12;
+    private static final int FANOUT_LENGTH = 256 * 4;
+    private static final int ID_LENGTH = UID_LENGTH / 2;
+
+    /**
+     * Objects rebuilt as delta bases, shared by all packs as object ids are unique.
+     */
+    private static final ObjectCache<byte[]> BASE_CACHE =
+            new ObjectCache<>("delta base", 16 << 20, contents -> contents.length);
+
+    private final Path packFile;
+    private final Path indexFile;
+    private final FileChannel pack;
+
+    private final MappedByteBuffer index;
+    private final int count;
+    private final int idsStart;
+    private final int offsetsStart;
+
+    /**
+     * Open the pack whose index is `indexFile`.
+     */
+    PackFile(Path indexFile) {
+        this.indexFile = indexFile;
+        String name = indexFile.getFileName().toString();
+        this.packFile = indexFile.resolveSibling(
+                name.substring(0, name.length() - INDEX_SUFFIX.length()) + PACK_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+                this.index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            this.pack = FileChannel.open(packFile, StandardOpenOption.READ);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            readFully(header, 0);
+            if (!hasMagic(header, PACK_MAGIC) || header.getInt(4) != VERSION) {
+                pack.close();
+                throw error("Corrupted pack %s.", packFile.getFileName());
+            }
+        } catch (IOException e) {
+            throw error("Cannot open pack %s.", name);
+        }
+        if (index.capacity() < HEADER_LENGTH + FANOUT_LENGTH || !hasMagic(index, INDEX_MAGIC)
+                || index.getInt(4) != INDEX_VERSION) {
+            throw error("Corrupted pack index %s.", name);
+        }
+        this.count = index.getInt(8);
+        this.idsStart = HEADER_LENGTH + FANOUT_LENGTH;
+        this.offsetsStart = idsStart + count * ID_LENGTH;
+    }
+
+    /**
+     * Open all packs in `packsDir`, return an empty list if there is no such directory.
+     */
+    static List<PackFile> openAll(Path packsDir) {
+        List<PackFile> packs = new ArrayList<>();
+        List<String> fileNames = plainFilenamesIn(packsDir);
+        if (fileNames == null) return packs;
+        for (String fileName : fileNames) {
+            if (fileName.endsWith(INDEX_SUFFIX)) {
+                packs.add(new PackFile(packsDir.resolve(fileName)));
+            }
+        }
+        return packs;
+    }
+
+    int size() {
+        return count;
+    }
+
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Return contents of the object `id` in this pack, or null if the pack does not contain it.
+     */
+    byte[] read(String id) {
+        int pos = find(id);
+        if (pos < 0) return null;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(6);
+            readFully(header, offsetAt(pos));
+            ByteBuffer stored = ByteBuffer.allocate(header.getInt(2));
+            readFully(stored, offsetAt(pos) + 6);
+            byte[] data = Compressor.forCode(header.get(1)).decompress(stored.array());
+            if ((header.get(0) & DELTA_FLAG) == 0) {
+                return data;
+            }
+            ByteBuffer contents = ByteBuffer.wrap(data);
+            byte[] baseId = new byte[ID_LENGTH];
+            contents.get(baseId);
+            byte[] delta = new byte[contents.remaining()];
+            contents.get(delta);
+            return Delta.apply(readBase(bytesToHex(baseId)), delta);
+        } catch (IOException e) {
+            throw error("Cannot read object %s from %s.", id, packFile.getFileName());
+        }
+    }
+
+    /**
+     * Return contents of the delta base `id`, through the cache of bases.
+     */
+    private byte[] readBase(String id) {
+        byte[] base = BASE_CACHE.get(id);
+        if (base == null) {
+            base = read(id);
+            if (base == null) {
+                throw error("Missing delta base %s in %s.", id, packFile.getFileName());
+            }
+            BASE_CACHE.put(id, base);
+        }
+        return base;
+    }
+
+    /**
+     * Return ids of all objects of `type` in this pack, in ascending order.
+     */
+    List<String> ids(ObjectStore.Type type) {
+        List<String> ids = new ArrayList<>();
+        ByteBuffer typeCode = ByteBuffer.allocate(1);
+        try {
+            for (int pos = 0; pos < count; pos += 1) {
+                typeCode.clear();
+                readFully(typeCode, offsetAt(pos));
+                if ((typeCode.get(0) & ~DELTA_FLAG) == type.code) {
+                    ids.add(idAt(pos));
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot read %s.", packFile.getFileName());
+        }
+        return ids;
+    }
+
+    /**
+     * Close the pack file. The index stays mapped until it is garbage collected.
+     */
+    void close() {
+        try {
+            pack.close();
+        } catch (IOException e) {
+            // Only read from, there is nothing to lose
+        }
+    }
+
+    /**
+     * Delete this pack, the index goes first so that readers never see a pack without its data.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(packFile);
+    }
+
+    Path getPath() {
+        return packFile;
+    }
+
+    /**
+     * Position of `id` in the index, return -1 if not found.
+     * Only the range of ids sharing the first byte of `id`, given by the fanout table, is searched.
+     */
+    private int find(String id) {
+        if (id == null || id.length() != UID_LENGTH) return -1;
+        int first = hexByte(id, 0);
+        if (first < 0) return -1;
+        int lo = first == 0 ? 0 : index.getInt(HEADER_LENGTH + (first - 1) * 4);
+        int hi = index.getInt(HEADER_LENGTH + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareId(mid, id);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare the id at `pos` of the index with hexadecimal `id`,
+     * an id containing non-hexadecimal digits is larger than any other.
+     */
+    private int compareId(int pos, String id) {
+        int base = idsStart + pos * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            int key = hexByte(id, i);
+            if (key < 0) return -1;
+            int cmp = Integer.compare(index.get(base + i) & 0xff, key);
+            if (cmp != 0) return cmp;
+        }
+        return 0;
+    }
+
+    private String idAt(int pos) {
+        StringBuilder id = new StringBuilder(UID_LENGTH);
+        int base = idsStart + pos * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i += 1) {
+            id.append(String.format("%02x", index.get(base + i)));
+        }
+        return id.toString();
+    }
+
+    private long offsetAt(int pos) {
+        return index.getLong(offsetsStart + pos * 8);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (pack.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Value of the `i`-th byte of hexadecimal `id`, or -1 if it is not made of hexadecimal digits.
+     */
+    private static int hexByte(String id, int i) {
+        int hi = Character.digit(id.charAt(2 * i), 16);
+        int lo = Character.digit(id.charAt(2 * i + 1), 16);
+        if (hi < 0 || lo < 0) return -1;
+        return (hi << 4) | lo;
+    }
+
+    /* WRITING PACKS */
+
+    /**
+     * Writes objects into a new pack in a temporary file, and
+     * publishes the pack and its index when finished.
+     */
+    static class Writer {
+        private final Path packsDir;
+        private final Path tempFile;
+        private final DataOutputStream out;
+        /**
+         * Mapping of object ids written so far to their offsets in the pack.
+         */
+        private final Map<String, Long> offsets = new TreeMap<>();
+        private long offset;
+
+        Writer(Path packsDir) throws IOException {
+            this.packsDir = packsDir;
+            Files.createDirectories(packsDir);
+            this.tempFile = Files.createTempFile(packsDir, "tmp-", PACK_SUFFIX);
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+            out.write(PACK_MAGIC);
+            out.writeInt(VERSION);
+            // Number of objects, filled in by finish()
+            out.writeInt(0);
+            offset = HEADER_LENGTH;
+        }
+
+        /**
+         * Append object `id` to the pack, do nothing if it is already in.
+         */
+        void add(String id, ObjectStore.Type type, byte[] contents) throws IOException {
+            if (offsets.containsKey(id)) return;
+            writeEntry(id, type.code, contents);
+        }
+
+        /**
+         * Append object `id` as a delta against `baseId`, which must be added to this pack too.
+         */
+        void addDelta(String id, ObjectStore.Type type, String baseId, byte[] delta) throws IOException {
+            if (offsets.containsKey(id)) return;
+            byte[] data = new byte[ID_LENGTH + delta.length];
+            System.arraycopy(hexToBytes(baseId), 0, data, 0, ID_LENGTH);
+            System.arraycopy(delta, 0, data, ID_LENGTH, delta.length);
+            writeEntry(id, type.code | DELTA_FLAG, data);
+        }
+
+        /**
+         * Append object `id` already compressed by `compressor` into `stored`, do nothing if it is already in.
+         * This lets callers compress many objects in parallel.
+         */
+        void addCompressed(String id, ObjectStore.Type type, Compressor compressor, byte[] stored)
+                throws IOException {
+            if (offsets.containsKey(id)) return;
+            writeStored(id, type.code, compressor, stored);
+        }
+
+        private void writeEntry(String id, int typeCode, byte[] data) throws IOException {
+            Compressor compressor = ObjectStore.compressor;
+            writeStored(id, typeCode, compressor, compressor.compress(data));
+        }
+
+        private void writeStored(String id, int typeCode, Compressor compressor, byte[] stored) throws IOException {
+            offsets.put(id, offset);
+            out.writeByte(typeCode);
+            out.writeByte(compressor.code());
+            out.writeInt(stored.length);
+            out.write(stored);
+            offset += 1 + 1 + 4 + stored.length;
+        }
+
+        /**
+         * Close the pack, name it after the objects it contains and write its index.
+         * Return null if no object was added.
+         */
+        PackFile finish() throws IOException {
+            out.close();
+            if (offsets.isEmpty()) {
+                Files.delete(tempFile);
+                return null;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(tempFile.toFile(), "rw")) {
+                raf.seek(8);
+                raf.writeInt(offsets.size());
+            }
+
+            String name = "pack-" + sha1(new ArrayList<>(offsets.keySet()));
+            Path packFile = packsDir.resolve(name + PACK_SUFFIX);
+            Path indexFile = packsDir.resolve(name + INDEX_SUFFIX);
+            Files.move(tempFile, packFile, StandardCopyOption.REPLACE_EXISTING);
+            Journal.written(packFile);
+
+            writeIndex(indexFile, offsets);
+            return new PackFile(indexFile);
+        }
+    }
+
+    /**
+     * Write the index of a pack, `offsets` maps each object id of the pack to the offset of its entry.
+     */
+    private static void writeIndex(Path indexFile, Map<String, Long> offsets) throws IOException {
+        int[] fanout = new int[256];
+        for (String id : offsets.keySet()) {
+            fanout[hexByte(id, 0)] += 1;
+        }
+        for (int i = 1; i < fanout.length; i += 1) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        Path tempIndex = Files.createTempFile(indexFile.getParent(), "tmp-", INDEX_SUFFIX);
+        try (DataOutputStream idx = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempIndex)))) {
+            idx.write(INDEX_MAGIC);
+            idx.writeInt(INDEX_VERSION);
+            idx.writeInt(offsets.size());
+            for (int n : fanout) {
+                idx.writeInt(n);
+            }
+            for (String id : offsets.keySet()) {
+                idx.write(hexToBytes(id));
+            }
+            for (long offset : offsets.values()) {
+                idx.writeLong(offset);
+            }
+        }
+        Files.move(tempIndex, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        Journal.written(indexFile);
+    }
+
+    /* UTILITIES */
+
+    private static boolean hasMagic(ByteBuffer buffer, byte[] magic) {
+        for (int i = 0; i < magic.length; i += 1) {
+            if (buffer.get(i) != magic[i]) return false;
+        }
+        return true;
+    }
+}
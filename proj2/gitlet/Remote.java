@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * Remotes: other repositories on the same file system that commits are fetched from and pushed to.
+ * They are kept in .gitlet/remotes, a line per remote: name | tab | path of its .gitlet directory,
+ * absolute or relative to CWD, with '/' as separator.
+ * <p>
+ * Only objects missing from the receiving repository are transferred. Wanting the head of a branch,
+ * the sender walks back its history and stops at the commits the receiver already has,
+ * which then has all of their history too. Trees of the new commits are walked the same way,
+ * skipping nodes the receiver has, so subtrees shared with its commits are never visited.
+ * So a transfer costs in proportion to the commits and files that changed, not to the size of the history.
+ * The objects are streamed into a single new pack of the receiver, blobs compressed in parallel.
+ * Of a large blob stored as chunks, only the chunks the receiver does not have are sent.
+ *
+ * @author Louis Lu
+ */
+class Remote {
+
+    static final String REMOTES_FILE_NAME = "remotes";
+
+    final String name;
+    final Path gitletDir;
+
+    private Remote(String name, Path gitletDir) {
+        this.name = name;
+        this.gitletDir = gitletDir;
+    }
+
+    /**
+     * Return the remote `name` of the repository in CWD.
+     */
+    static Remote get(String name) {
+        String path = list().get(name);
+        if (path == null) {
+            throw new GitletException("A remote with that name does not exist.");
+        }
+        Path gitletDir = resolve(path);
+        if (!Files.isDirectory(gitletDir)) {
+            throw new GitletException("Remote directory not found.");
+        }
+        return new Remote(name, gitletDir);
+    }
+
+    /**
+     * Return the .gitlet directory at `path`, relative to CWD with '/' as separator.
+     */
+    static Path resolve(String path) {
+        return Paths.get(Repository.CWD).resolve(path.replace("/", File.separator)).normalize();
+    }
+
+    /**
+     * Return paths of all remotes by name.
+     */
+    static Map<String, String> list() {
+        Map<String, String> remotes = new TreeMap<>();
+        Path file = remotesFile();
+        if (!Files.exists(file)) return remotes;
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    remotes.put(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot read %s.", REMOTES_FILE_NAME);
+        }
+        return remotes;
+    }
+
+    static void add(String name, String path) {
+        Map<String, String> remotes = list();
+        if (remotes.containsKey(name)) {
+            throw new GitletException("A remote with that name already exists.");
+        }
+        remotes.put(name, path);
+        save(remotes);
+    }
+
+    static void remove(String name) {
+        Map<String, String> remotes = list();
+        if (remotes.remove(name) == null) {
+            throw new GitletException("A remote with that name does not exist.");
+        }
+        save(remotes);
+    }
+
+    private static void save(Map<String, String> remotes) {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> remote : remotes.entrySet()) {
+            contents.append(remote.getKey()).append('\t').append(remote.getValue()).append('\n');
+        }
+        writeAtomically(remotesFile(), contents.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Path remotesFile() {
+        return Repository.GITLET_DIR.resolve(REMOTES_FILE_NAME);
+    }
+
+    /**
+     * The object store of this remote, to be closed when done with it.
+     */
+    ObjectStore store() {
+        return new ObjectStore(gitletDir);
+    }
+
+    /* TRANSFER OF OBJECTS */
+
+    /**
+     * Copy commit `want` with its history, trees and blobs from `source` into a new pack of `target`,
+     * skipping what `target` already has. Return the commits copied, each after its parents.
+     */
+    static List<Commit> transfer(ObjectStore source, ObjectStore target, String want) {
+        Set<String> seen = new HashSet<>();
+        Map<String, Commit> commits = new HashMap<>();
+        Deque<String> trees = new ArrayDeque<>();
+        List<String> blobs = new ArrayList<>();
+        try {
+            PackFile.Writer writer = target.newPack();
+
+            // Commits: wanted ones the target does not have, which it would have with all their history
+            Deque<String> wants = new ArrayDeque<>();
+            wants.push(want);
+            while (!wants.isEmpty()) {
+                String id = wants.pop();
+                if (!seen.add(id) || target.contains(ObjectStore.Type.COMMIT, id)) continue;
+                byte[] contents = source.read(ObjectStore.Type.COMMIT, id);
+                if (contents == null) {
+                    throw error("Missing commit %s.", id);
+                }
+                Commit cmt = Codec.isSerialized(contents)
+                        ? deserialize(contents, Commit.class) : Commit.decode(contents);
+                writer.add(id, ObjectStore.Type.COMMIT, contents);
+                commits.put(id, cmt);
+                for (String parent : new String[]{cmt.getParentId(), cmt.getMergedParentId()}) {
+                    if (parent != null) wants.push(parent);
+                }
+                if (cmt.getStoredTreeId() != null) {
+                    trees.push(cmt.getStoredTreeId());
+                } else {
+                    cmt.getTree().forEach((fileName, blobId) -> wantBlob(blobId, target, seen, blobs));
+                }
+            }
+
+            // Tree nodes, skipping subtrees the target has
+            while (!trees.isEmpty()) {
+                String id = trees.pop();
+                if (!seen.add(id) || target.contains(ObjectStore.Type.TREE, id)) continue;
+                byte[] contents = source.read(ObjectStore.Type.TREE, id);
+                if (contents == null) {
+                    throw error("Missing tree %s.", id);
+                }
+                writer.add(id, ObjectStore.Type.TREE, contents);
+                Tree.forEachReference(contents, trees::push, blobId -> wantBlob(blobId, target, seen, blobs));
+            }
+
+            // Blobs, then the chunks of large ones that the target does not have
+            Set<String> chunks = ConcurrentHashMap.newKeySet();
+            copy(source, writer, ObjectStore.Type.BLOB, blobs, contents -> chunks.addAll(Blob.chunkIds(contents)));
+            List<String> missingChunks = new ArrayList<>();
+            for (String id : new TreeSet<>(chunks)) {
+                if (seen.add(id) && !target.contains(ObjectStore.Type.CHUNK, id)) {
+                    missingChunks.add(id);
+                }
+            }
+            copy(source, writer, ObjectStore.Type.CHUNK, missingChunks, contents -> { });
+
+            PackFile pack = writer.finish();
+            if (pack != null) {
+                target.addPack(pack);
+            }
+        } catch (IOException e) {
+            throw error("Cannot write pack: %s", e.getMessage());
+        }
+        return parentsFirst(commits);
+    }
+
+    /**
+     * Add objects `ids` of `type` from `source` to `writer`, read and compressed in parallel,
+     * passing the contents of each one to `visit`, from any thread.
+     */
+    private static void copy(ObjectStore source, PackFile.Writer writer, ObjectStore.Type type, List<String> ids,
+                             Consumer<byte[]> visit) throws IOException {
+        Compressor compressor = ObjectStore.compressor;
+        for (int from = 0; from < ids.size(); from += Blob.BATCH_SIZE) {
+            List<String> batch = ids.subList(from, Math.min(ids.size(), from + Blob.BATCH_SIZE));
+            Map<String, byte[]> stored = TreeScanner.forEach(batch, id -> {
+                byte[] contents = source.read(type, id);
+                if (contents == null) {
+                    throw error("Missing object %s.", id);
+                }
+                visit.accept(contents);
+                try {
+                    return compressor.compress(contents);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            });
+            for (Map.Entry<String, byte[]> object : stored.entrySet()) {
+                writer.addCompressed(object.getKey(), type, compressor, object.getValue());
+            }
+        }
+    }
+
+    private static void wantBlob(String id, ObjectStore target, Set<String> seen, List<String> blobs) {
+        if (seen.add(id) && !target.contains(ObjectStore.Type.BLOB, id)) {
+            blobs.add(id);
+        }
+    }
+
+    /**
+     * Return `commits` ordered so that each one comes after those of its parents that are among them.
+     */
+    private static List<Commit> parentsFirst(Map<String, Commit> commits) {
+        List<Commit> ordered = new ArrayList<>(commits.size());
+        Set<String> done = new HashSet<>();
+        Deque<Commit> stack = new ArrayDeque<>();
+        for (Commit start : commits.values()) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                Commit cmt = stack.peek();
+                if (done.contains(cmt.getId())) {
+                    stack.pop();
+                    continue;
+                }
+                boolean ready = true;
+                for (String parent : new String[]{cmt.getParentId(), cmt.getMergedParentId()}) {
+                    if (parent != null && commits.containsKey(parent) && !done.contains(parent)) {
+                        stack.push(commits.get(parent));
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(cmt.getId());
+                    ordered.add(cmt);
+                }
+            }
+        }
+        return ordered;
+    }
+}
@@ -1,13 +1,16 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.Date;
 
 import static gitlet.Utils.*;
 
@@ -72,13 +75,34 @@ public class Repository implements Serializable {
      * The .gitlet and associated directory.
      * The Structure of .gitlet directory is like:
      * .gitlet
-     * ├── Blobs  // Contains all the blobs that gitlet system tracked
-     * │         ├── 9d4cc50909a76fddee78aa3e1109984797c0a6fe
-     * │         ├── e8d38523fee7e92cf365d4a7ca1a62cc326f191d
+     * ├── alternates // Other repositories whose objects are read, see ObjectStore
+     * ├── Blobs  // Contains all the blobs that gitlet system tracked, by first two hex digits of their ids
+     * │         ├── 9d
+     * │         │         └── 4cc50909a76fddee78aa3e1109984797c0a6fe
+     * │         ├── e8
+     * │         │         └── d38523fee7e92cf365d4a7ca1a62cc326f191d
      * │         └── ...
-     * ├── Commits // Contains all the commits
-     * │         ├── 90d14aef18a17e13b4e2222df26332d25092be3f
-     * │         ├── dfc960a42c1426126ed638d45186e88e1ea4624d
+     * ├── Chunks // Pieces of files larger than Blob.MIN_CHUNKED_SIZE, shared between their blobs
+     * │         └── ...
+     * ├── Commits // Contains all the commits, in subdirectories as blobs
+     * │         ├── 90
+     * │         │         └── d14aef18a17e13b4e2222df26332d25092be3f
+     * │         └── ...
+     * ├── Trees // Contains the nodes of file trees of commits, see Tree
+     * │         └── ...
+     * ├── commit-graph // Parents and generation numbers of all commits, see CommitGraph
+     * ├── CommitIndex // Metadata and messages of all commits for find and global-log, see CommitIndex
+     * │         ├── messages
+     * │         ├── postings-00
+     * │         ├── ...
+     * │         └── table
+     * ├── index // Size, modification time and blob id of working files, see StatIndex
+     * ├── journal // Present while a command changing many files runs, see Journal
+     * ├── remotes // Names and paths of other repositories, see Remote
+     * ├── sparse-checkout // Patterns of the files written into the working directory, see SparseCheckout
+     * ├── Packs // Blobs and commits folded by `gitlet repack`, and received by fetch and push
+     * │         ├── pack-bc6b5e5d4a1b3fbd4bf3bd2e0f1d3c8ddd6a4f97.idx
+     * │         ├── pack-bc6b5e5d4a1b3fbd4bf3bd2e0f1d3c8ddd6a4f97.pack
      * │         └── ...
      * └── States // Store system states, including pointers(HEAD, currentBranch and so on)
      * // and file mappings for staging area
@@ -121,21 +145,172 @@ public class Repository implements Serializable {
         stagingArea = new StagingArea();
 
         initCmt.save();
+        CommitGraph.local().add(initCmt);
+        CommitGraph.local().save();
+        CommitIndex.local().add(initCmt);
     }
 
 
     /**
-     * Save states of Repository
+     * Initiate a gitlet system in CWD as a clone of the repository whose .gitlet directory is `source`:
+     * with its branches and current branch, its HEAD checked out, and a remote named origin pointing to it.
+     * Its objects are hard-linked where possible, or with `shared` not taken at all but read from it
+     * as an alternate, see ObjectStore. Alternates of the source become alternates of the clone.
+     */
+    static Repository cloneFrom(String source, boolean shared) throws IOException {
+        Path sourceDir = Remote.resolve(source);
+        if (!Files.isDirectory(sourceDir)) {
+            throw new GitletException("Remote directory not found.");
+        }
+        if (!plainFilenamesIn(CWD_PATH).isEmpty()) {
+            throw new GitletException("The current directory is not empty.");
+        }
+        Repository sourceRepo = loadState(sourceDir);
+
+        List<Path> alternates = ObjectStore.readAlternates(sourceDir);
+        Files.createDirectories(GITLET_DIR);
+        Files.createDirectories(COMMITS_DIR);
+        Files.createDirectories(BLOBS_DIR);
+        long start = System.nanoTime();
+        if (shared) {
+            alternates.add(0, sourceDir);
+        } else {
+            ObjectStore.local().linkAll(sourceDir);
+        }
+        if (!alternates.isEmpty()) {
+            ObjectStore.writeAlternates(GITLET_DIR, alternates);
+        }
+        Main.timing("clone: link objects", start);
+
+        // Copies, as the commit index is appended to in place
+        Path graph = sourceDir.resolve(CommitGraph.COMMIT_GRAPH_FILE_NAME);
+        if (Files.exists(graph)) {
+            Files.copy(graph, GITLET_DIR.resolve(CommitGraph.COMMIT_GRAPH_FILE_NAME));
+            Journal.written(GITLET_DIR.resolve(CommitGraph.COMMIT_GRAPH_FILE_NAME));
+        }
+        Path commitIndex = sourceDir.resolve(CommitIndex.COMMIT_INDEX_DIR_NAME);
+        if (Files.isDirectory(commitIndex)) {
+            Path copy = GITLET_DIR.resolve(CommitIndex.COMMIT_INDEX_DIR_NAME);
+            Files.createDirectories(copy);
+            for (String fileName : plainFilenamesIn(commitIndex)) {
+                Files.copy(commitIndex.resolve(fileName), copy.resolve(fileName));
+                Journal.written(copy.resolve(fileName));
+            }
+        }
+        Remote.add("origin", source);
+
+        Repository repo = new Repository(sourceRepo.HEAD, sourceRepo.currentBranch,
+                new TreeMap<>(sourceRepo.branches), new StagingArea());
+        start = System.nanoTime();
+        TreeScanner.checkout(CWD_PATH, Commit.getCmt(repo.HEAD).getTree().toMap());
+        Main.timing("clone: write files", start);
+        return repo;
+    }
+
+    private Repository(String HEAD, String currentBranch, Map<String, String> branches, StagingArea stagingArea) {
+        this.HEAD = HEAD;
+        this.currentBranch = currentBranch;
+        this.branches = branches;
+        this.stagingArea = stagingArea;
+    }
+
+    /**
+     * Save states of Repository, which is when a command takes effect: files written by the command
+     * are synced first, then the State file is replaced atomically, see Journal.
      */
     public static void saveState(Repository repo) {
-        writeObject(STATES_FILE.toFile(), repo);
+        Journal.sync();
+        writeAtomically(STATES_FILE, repo.encode());
+        Journal.end();
+        StatIndex.flush();
     }
 
     /**
-     * Save states of Repository
+     * Load states of Repository. States saved by Java serialization are rewritten with Codec.
+     * Writes of a command interrupted before saving states are undone first.
      */
     public static Repository loadState() {
-        return readObject(STATES_FILE.toFile(), Repository.class);
+        Journal.recover();
+        byte[] state = readContents(STATES_FILE);
+        if (Codec.isSerialized(state)) {
+            Repository repo = deserialize(state, Repository.class);
+            saveState(repo);
+            return repo;
+        }
+        return decode(state);
+    }
+
+    /**
+     * Load states of the repository in `gitletDir`, a remote of the one in CWD.
+     */
+    static Repository loadState(Path gitletDir) {
+        byte[] state = readContents(gitletDir.resolve(STATES_FILE.getFileName()));
+        if (Codec.isSerialized(state)) {
+            return deserialize(state, Repository.class);
+        }
+        return decode(state);
+    }
+
+    /**
+     * Save states of the repository in `gitletDir`, a remote of the one in CWD, once files written
+     * into it are synced.
+     */
+    static void saveState(Repository repo, Path gitletDir) {
+        Journal.sync();
+        writeAtomically(gitletDir.resolve(STATES_FILE.getFileName()), repo.encode());
+    }
+
+    private static final int STATE_VERSION = 1;
+
+    /**
+     * Encode states with Codec:
+     * HEAD (hash) | current branch (string) | number of branches (varint) | for each branch: name (string) | commit id (hash)
+     * | number of files staged for addition (varint) | for each file: name (string) | blob id (hash)
+     * | number of files staged for removal (varint) | for each file: name (string)
+     */
+    private byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Codec.Writer writer = new Codec.Writer(out).header(Codec.STATE, STATE_VERSION)
+                    .hash(HEAD).string(currentBranch).varint(branches.size());
+            for (Map.Entry<String, String> branch : branches.entrySet()) {
+                writer.string(branch.getKey()).hash(branch.getValue());
+            }
+            writer.varint(stagingArea.addition.size());
+            for (Map.Entry<String, String> file : stagingArea.addition.entrySet()) {
+                writer.string(file.getKey()).hash(file.getValue());
+            }
+            writer.varint(stagingArea.removal.size());
+            for (String fileName : stagingArea.removal) {
+                writer.string(fileName);
+            }
+        } catch (IOException e) {
+            throw error("Internal error encoding states.");
+        }
+        return out.toByteArray();
+    }
+
+    private static Repository decode(byte[] encoded) {
+        Codec.Reader reader = new Codec.Reader(new ByteArrayInputStream(encoded));
+        try {
+            reader.header(Codec.STATE, STATE_VERSION);
+            String HEAD = reader.hash();
+            String currentBranch = reader.string();
+            Map<String, String> branches = new TreeMap<>();
+            for (int i = reader.varintAsInt(); i > 0; i -= 1) {
+                branches.put(reader.string(), reader.hash());
+            }
+            StagingArea stagingArea = new StagingArea();
+            for (int i = reader.varintAsInt(); i > 0; i -= 1) {
+                stagingArea.addition.put(reader.string(), reader.hash());
+            }
+            for (int i = reader.varintAsInt(); i > 0; i -= 1) {
+                stagingArea.removal.add(reader.string());
+            }
+            return new Repository(HEAD, currentBranch, branches, stagingArea);
+        } catch (IOException e) {
+            throw error("Corrupted states file.");
+        }
     }
 
     /* Related to `gitlet add` command */
@@ -149,32 +324,77 @@ public class Repository implements Serializable {
      * Serialize it into a file which carries the same name with the `file` in the Staging Area
      */
     void add(Path file) {
-        Commit headCommit = Commit.getCmt(HEAD);
-        String commitedFileID = headCommit.get(file.getFileName().toString());
-        Blob fileInCWD = new Blob(file);
-
-        // TODO test, TO BE DELETED later
-        System.out.println("Id is: " + fileInCWD.id + "\nfileName is: " + fileInCWD.fileName);
+        stage(List.of(file.getFileName().toString()));
+    }
 
-        if (fileInCWD.id.equals(commitedFileID)) {
-            // If file is identical to version in HEAD commit, remove if from stage
-            stagingArea.addition.remove(fileInCWD.fileName);
-        } else {
-            stagingArea.addition.put(fileInCWD.fileName, fileInCWD.id);
-            fileInCWD.save();
+    /**
+     * Add the files named by `operands`, as `gitlet add`, each being one of:
+     * - a file name, or a path of a file of CWD such as ./wug.txt
+     * - CWD itself, as ".", for all its files
+     * - a glob matched against names of files of CWD, such as *.txt or [ab]?.c
+     * All operands are resolved before anything is staged, then all files are stored at once.
+     * Only files of CWD are tracked, so other directories cannot be added.
+     */
+    void add(List<String> operands) {
+        List<String> filesInCWD = plainFilenamesIn(CWD_PATH);
+        Set<String> fileNames = new TreeSet<>();
+        for (String operand : operands) {
+            Path path = CWD_PATH.resolve(operand).normalize();
+            if (path.equals(CWD_PATH)) {
+                fileNames.addAll(filesInCWD);
+            } else if (Files.isDirectory(path)) {
+                throw error("Cannot add directory %s, only files of the working directory are tracked.", operand);
+            } else if (isGlob(operand)) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + operand);
+                boolean matched = false;
+                for (String fileName : filesInCWD) {
+                    if (matcher.matches(Paths.get(fileName))) {
+                        fileNames.add(fileName);
+                        matched = true;
+                    }
+                }
+                if (!matched) {
+                    throw new GitletException("File does not exist.");
+                }
+            } else if (CWD_PATH.equals(path.getParent()) && Files.isRegularFile(path)) {
+                fileNames.add(path.getFileName().toString());
+            } else {
+                throw new GitletException("File does not exist.");
+            }
         }
-        /*
-        if (fileInCWD.id.equals(commitedFileID)) {
-            if (checkFileExist(STAGING_AREA.resolve(fileInCWD.fileName)))
-                removeFromStage(fileInCWD.fileName);
-        } else {
-            writeObject(STAGING_AREA.resolve(fileInCWD.fileName).toFile(), fileInCWD);
+        stage(fileNames);
+    }
+
+    private static boolean isGlob(String operand) {
+        for (char c : operand.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == '{') return true;
         }
-        */
+        return false;
+    }
 
-        // Try to delete it from removal
-        // removeFromRemoval(fileInCWD.fileName);
-        stagingArea.removal.remove(fileInCWD.fileName);
+    /**
+     * Stage files `fileNames` of CWD, hashing and storing them in parallel.
+     * A file unchanged since it was last hashed is only stored if its blob is missing.
+     */
+    private void stage(Collection<String> fileNames) {
+        Commit headCommit = Commit.getCmt(HEAD);
+        long start = System.nanoTime();
+        Map<String, String> fileIds = TreeScanner.store(CWD_PATH, fileNames);
+        Main.timing("add: hash and store", start);
+
+        for (Map.Entry<String, String> file : fileIds.entrySet()) {
+            String fileName = file.getKey();
+            String fileInCWDId = file.getValue();
+            if (fileInCWDId.equals(headCommit.get(fileName))) {
+                // If file is identical to version in HEAD commit, remove if from stage
+                stagingArea.addition.remove(fileName);
+            } else {
+                stagingArea.addition.put(fileName, fileInCWDId);
+            }
+
+            // Try to delete it from removal
+            stagingArea.removal.remove(fileName);
+        }
     }
 
     /* RELATED TO GITLET COMMIT */
@@ -194,12 +414,9 @@ public class Repository implements Serializable {
 
         // Add files in addition
         // Set<String> stagedFiles = new HashSet<>(stagingArea.additon.keySet());
+        // Staged blobs were saved by `add`
         for (String fileName : stagingArea.addition.keySet()) {
-            Blob stagedBlob = Blob.getBlob(stagingArea.addition.get(fileName));
-            cmt.put(fileName, stagedBlob.id);
-            stagedBlob.save();
-            // saveBlobToRepo(stagedBlob);
-            // removeFromStage(fileName);
+            cmt.put(fileName, stagingArea.addition.get(fileName));
         }
         // Remove files in removal
         for (String fileName : stagingArea.removal) {
@@ -212,11 +429,11 @@ public class Repository implements Serializable {
         // Move HEAD pointer
         HEAD = cmt.getId();
 
-        // TODO test DELETE WHEN COMPLETE
-        printCmtInLog(cmt);
-
         // save change into files
         cmt.save();
+        CommitGraph.local().add(cmt);
+        CommitGraph.local().save();
+        CommitIndex.local().add(cmt);
     }
 
     /*
@@ -321,46 +538,44 @@ public class Repository implements Serializable {
     /* RELATED TO LOG */
 
     void log() {
-        Commit currCmt = Commit.getCmt(HEAD);
-        while (currCmt != null) {
-            printCmtInLog(currCmt);
-            currCmt = Commit.getCmt(currCmt.getParentId());
-        }
+        log(Long.MAX_VALUE, Long.MIN_VALUE, false);
     }
 
-    static void printCmtInLog(Commit cmt) {
-        System.out.println("===");
-        System.out.println("commit " + cmt.getId());
-        if (cmt.getMergedParentId() != null) {
-            System.out.println("Merge: " + cmt.getMergedParentId());
+    /**
+     * Print HEAD commit and its first parents, at most `limit` of them, stopping at the first commit
+     * made before `since` (milliseconds since the epoch). Commits are read no further than needed.
+     */
+    void log(long limit, long since, boolean oneline) {
+        LogPrinter printer = new LogPrinter(System.out, oneline);
+        try (CommitWalker walker = new CommitWalker(HEAD, limit)) {
+            while (walker.hasNext()) {
+                Commit cmt = walker.next();
+                if (cmt.getTimestamp() < since) break;
+                printer.print(cmt);
+            }
+        } finally {
+            printer.flush();
         }
-        SimpleDateFormat dateFmt = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
-        dateFmt.setTimeZone(TimeZone.getTimeZone("GMT-08:00"));
-        // TODO change timezone depending on where you live
-        System.out.println("Date: " + dateFmt.format(new Date(cmt.getTimestamp())));
-        System.out.println(cmt.getMessage());
-        System.out.println();
     }
 
+    /**
+     * Print all commits ever made, from the commit index rather than from commit objects.
+     */
     void globalLog() {
-        List<String> cmtIDs = plainFilenamesIn(COMMITS_DIR);
-        for (String id : cmtIDs) {
-            Commit cmt = Commit.getCmt(id);
-            printCmtInLog(cmt);
-        }
+        LogPrinter printer = new LogPrinter(System.out, false);
+        CommitIndex.local().forEach(entry -> printer.print(
+                entry.id, entry.mergedParentId, entry.timestamp, entry.message));
+        printer.flush();
     }
 
     /**
      * Prints out the ids of all commits that have the given commit message, one per line.
      * If there are multiple such commits, it prints the ids out on separate lines.
+     * Only commits containing every word of the message, as given by the commit index, are looked at.
      */
     void find(String msg) {
-        List<String> cmtIDs = plainFilenamesIn(COMMITS_DIR);
-        for (String id : cmtIDs) {
-            Commit cmt = Commit.getCmt(id);
-            if (msg.equals(cmt.getMessage())) {
-                System.out.println(cmt.getId());
-            }
+        for (String id : CommitIndex.local().find(msg)) {
+            System.out.println(id);
         }
     }
 
@@ -371,6 +586,7 @@ public class Repository implements Serializable {
         printStage();
         printRemoval();
         printUntrackFileAndModificationNotStaged();
+        StatIndex.flush();
     }
 
     void printBranch() {
@@ -411,7 +627,9 @@ public class Repository implements Serializable {
         // TODO fix removal files in modified
         Commit cmt = Commit.getCmt(HEAD);
 
+        long start = System.nanoTime();
         List<String> filesInCWD = plainFilenamesIn(CWD_PATH);
+        Main.timing("status: list files", start);
         List<String> filesTracked = new ArrayList<>(cmt.getAll());
         List<String> filesStaged = new ArrayList<>(stagingArea.addition.keySet());
         List<String> filesToRemove = new ArrayList<>(stagingArea.removal);
@@ -421,8 +639,12 @@ public class Repository implements Serializable {
         List<String> filesStagedButNotInCWD = new ArrayList<>(filesStaged);
         List<String> filesTrackedNotInCWD = new ArrayList<>(filesTracked);
 
+        StatIndex.local().retainOnly(filesInCWD);
+        start = System.nanoTime();
+        Map<String, String> CWDIds = TreeScanner.hash(CWD_PATH, filesInCWD);
+        Main.timing("status: hash files", start);
         for (String fileName : filesInCWD) {
-            String CWDId = new Blob(CWD_PATH.resolve(fileName)).id;
+            String CWDId = CWDIds.get(fileName);
             // String addId = filesStaged.contains(fileName) ? getBlobFromStage(fileName).id : null;
             String addId = stagingArea.addition.get(fileName);
             String cmtId = cmt.get(fileName);
@@ -442,8 +664,12 @@ public class Repository implements Serializable {
         for (String fileName : filesStagedButNotInCWD) {
             modifications.add(fileName + " (deleted)");
         }
+        SparseCheckout sparse = SparseCheckout.load();
         for (String fileName : filesTrackedNotInCWD) {
-            modifications.add(fileName + " (deleted)");
+            // Files outside the sparse checkout are missing on purpose
+            if (sparse.includes(fileName)) {
+                modifications.add(fileName + " (deleted)");
+            }
         }
         modifications.sort(String.CASE_INSENSITIVE_ORDER);
         untracked.sort(String.CASE_INSENSITIVE_ORDER);
@@ -459,21 +685,112 @@ public class Repository implements Serializable {
         System.out.println();
     }
 
-    /* RELATED TO CHECKOUT COMMAND */
+    /* RELATED TO DIFF */
 
     /**
-     * Checkout a file from HEAD commit into CWD
+     * Print changes between two versions of the files as a unified diff, see Diff.
+     * With two commits in `revs`, compare them. Otherwise compare the first of `revs`, or by default
+     * HEAD if `cached` is set and else the staging area, to the staging area if `cached` is set,
+     * or else to the working files tracked by either side. Commits are given by id or by branch name.
      */
-    void checkout(String fileName) throws IOException {
-        checkout(fileName, HEAD);
+    void diff(boolean cached, List<String> revs) throws IOException {
+        Map<String, String> oldFiles;
+        Map<String, String> newFiles;
+        boolean working = false;
+        if (revs.size() == 2) {
+            oldFiles = filesOf(revs.get(0));
+            newFiles = filesOf(revs.get(1));
+        } else if (cached) {
+            oldFiles = filesOf(revs.isEmpty() ? HEAD : revs.get(0));
+            newFiles = stagedFiles();
+        } else {
+            Map<String, String> staged = stagedFiles();
+            oldFiles = revs.isEmpty() ? staged : filesOf(revs.get(0));
+            Set<String> tracked = new HashSet<>(oldFiles.keySet());
+            tracked.addAll(staged.keySet());
+            tracked.retainAll(plainFilenamesIn(CWD_PATH));
+            newFiles = TreeScanner.hash(CWD_PATH, tracked);
+            working = true;
+        }
+
+        Set<String> names = new TreeSet<>(oldFiles.keySet());
+        names.addAll(newFiles.keySet());
+        SparseCheckout sparse = SparseCheckout.load();
+        long start = System.nanoTime();
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        for (String name : names) {
+            String oldId = oldFiles.get(name);
+            String newId = newFiles.get(name);
+            if (Objects.equals(oldId, newId)) continue;
+            // Files outside the sparse checkout are not deleted by being missing
+            if (working && newId == null && !sparse.includes(name)) continue;
+            byte[] newContents = working && newId != null
+                    ? readContents(CWD_PATH.resolve(name)) : contentsOf(newId);
+            printFileDiff(out, name, oldId == null ? null : contentsOf(oldId), newId == null ? null : newContents);
+        }
+        out.flush();
+        Main.timing("diff: compare files", start);
+        StatIndex.flush();
+    }
+
+    /**
+     * Print the diff of versions `oldContents` and `newContents` of file `name`, null for a missing version.
+     */
+    private static void printFileDiff(OutputStream out, String name, byte[] oldContents, byte[] newContents)
+            throws IOException {
+        String oldName = oldContents == null ? "/dev/null" : "a/" + name;
+        String newName = newContents == null ? "/dev/null" : "b/" + name;
+        byte[] oldBytes = oldContents == null ? new byte[0] : oldContents;
+        byte[] newBytes = newContents == null ? new byte[0] : newContents;
+        StringBuilder header = new StringBuilder();
+        header.append("diff --gitlet a/").append(name).append(" b/").append(name).append('\n');
+        if (Diff.isBinary(oldBytes) || Diff.isBinary(newBytes)) {
+            header.append("Binary files ").append(oldName).append(" and ").append(newName).append(" differ\n");
+            out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        header.append("--- ").append(oldName).append('\n');
+        header.append("+++ ").append(newName).append('\n');
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+
+        Diff.Interner interner = new Diff.Interner();
+        Diff.Lines oldLines = interner.split(oldBytes);
+        Diff.Lines newLines = interner.split(newBytes);
+        Diff.writeUnified(out, oldLines, newLines, Diff.diff(oldLines, newLines));
     }
 
     /**
-     * Checkout blob contents into a file
+     * Files of HEAD with changes of the staging area applied, mapped to their blob ids.
      */
-    private void checkout(Blob blob) {
-        Path path = CWD_PATH.resolve(blob.fileName);
-        writeContents(path.toFile(), blob.contents);
+    private Map<String, String> stagedFiles() {
+        Map<String, String> files = Commit.getCmt(HEAD).getTree().toMap();
+        files.putAll(stagingArea.addition);
+        files.keySet().removeAll(stagingArea.removal);
+        return files;
+    }
+
+    /**
+     * Files of the commit named by `rev`, a branch name or a possibly abbreviated commit id.
+     */
+    private Map<String, String> filesOf(String rev) {
+        String cmtId = branches.get(rev);
+        if (cmtId == null) {
+            cmtId = rev.length() < 40 ? getFullCmtId(rev) : rev;
+        }
+        Commit cmt = cmtId == null ? null : Commit.getCmt(cmtId);
+        if (cmt == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        return cmt.getTree().toMap();
+    }
+
+    /* RELATED TO CHECKOUT COMMAND */
+
+    /**
+     * Checkout a file from HEAD commit into CWD
+     */
+    void checkout(String fileName) throws IOException {
+        checkout(fileName, HEAD);
     }
 
     /**
@@ -493,8 +810,7 @@ public class Repository implements Serializable {
         if (fileId == null) {
             throw new GitletException("File does not exist in that commit.");
         }
-        Blob fileInBlob = Blob.getBlob(fileId);
-        checkout(fileInBlob);
+        TreeScanner.checkout(CWD_PATH, Map.of(fileName, fileId));
     }
 
     void checkoutToBranch(String branchName) throws IOException {
@@ -512,46 +828,107 @@ public class Repository implements Serializable {
 
     /**
      * Checkout files to a specific commit
-     * Note: this method focuses on checkout files in Staging Area and CWD, would not modify pointers
+     * Note: this method focuses on checkout files in Staging Area and CWD, would not modify pointers.
+     * Only files whose blob ids differ from the working files are written, and only those matching
+     * the sparse checkout patterns, see SparseCheckout.
      *
      * @param cmtId specific commit id
      */
     private void checkoutFilesToCmt(String cmtId) throws IOException {
-        Commit coutCmt = Commit.getCmt(cmtId);
-        Commit currCmt = Commit.getCmt(HEAD);
+        Map<String, String> coutFiles = Commit.getCmt(cmtId).getTree().toMap();
+        Map<String, String> currFiles = Commit.getCmt(HEAD).getTree().toMap();
+        SparseCheckout sparse = SparseCheckout.load();
 
         // (*) Find any files that are tracked (which means files stored in commit or stated for addition)
         // in the current branch but are not present in the checked-out branch
-        List<String> currTrackNotInCoutCmtFiles = new ArrayList<>(currCmt.getAll());
-        List<String> stagedNotInCoutCmtFiles = new ArrayList<>(stagingArea.addition.keySet());
-
-        for (String fileName : coutCmt.getAll()) {
-            String fileId = coutCmt.get(fileName);
-            Blob fileInRepo = Blob.getBlob(fileId);
-            // Files.write(Paths.get(CWD, fileName), fileInRepo.contents);
-            checkout(fileInRepo);
-
-            // For (*)
-            currTrackNotInCoutCmtFiles.remove(fileName);
-            stagedNotInCoutCmtFiles.remove(fileName);
+        Set<String> trackedNotInCoutCmtFiles = new TreeSet<>(currFiles.keySet());
+        trackedNotInCoutCmtFiles.addAll(stagingArea.addition.keySet());
+        trackedNotInCoutCmtFiles.removeAll(coutFiles.keySet());
+
+        Map<String, String> filesToWrite = new TreeMap<>();
+        Set<String> excludedFiles = new TreeSet<>();
+        for (Map.Entry<String, String> file : coutFiles.entrySet()) {
+            if (sparse.includes(file.getKey())) {
+                filesToWrite.put(file.getKey(), file.getValue());
+            } else {
+                excludedFiles.add(file.getKey());
+            }
         }
 
+        long start = System.nanoTime();
+        int written = TreeScanner.checkout(CWD_PATH, filesToWrite);
+        Main.timing(String.format("checkout: write %d of %d files", written, filesToWrite.size()), start);
+
         // Delete any files in (*)
-        for (String fileName : currTrackNotInCoutCmtFiles)
-            restrictedDelete(CWD_PATH.resolve(fileName).toFile());
-        for (String fileName : stagedNotInCoutCmtFiles)
+        for (String fileName : trackedNotInCoutCmtFiles)
             restrictedDelete(CWD_PATH.resolve(fileName).toFile());
 
+        // Delete copies of files outside the sparse checkout, unless they were changed
+        excludedFiles.retainAll(plainFilenamesIn(CWD_PATH));
+        Map<String, String> excludedIds = TreeScanner.hash(CWD_PATH, excludedFiles);
+        for (String fileName : excludedFiles) {
+            String id = excludedIds.get(fileName);
+            if (id.equals(currFiles.get(fileName)) || id.equals(coutFiles.get(fileName))) {
+                restrictedDelete(CWD_PATH.resolve(fileName).toFile());
+            }
+        }
+
         // Clear the staging area
         stagingArea.clear();
     }
 
+    /* RELATED TO SPARSE CHECKOUT */
+
+    /**
+     * Set the sparse checkout patterns to `patterns`, or disable sparse checkout if there are none,
+     * then bring the working files of HEAD in line: files now included that are missing are written,
+     * and unchanged files now excluded are deleted. Staged and modified files are left alone.
+     */
+    void sparseCheckout(List<String> patterns) {
+        SparseCheckout sparse = SparseCheckout.save(patterns);
+        Map<String, String> headFiles = Commit.getCmt(HEAD).getTree().toMap();
+        Set<String> filesInCWD = new HashSet<>(plainFilenamesIn(CWD_PATH));
+
+        Map<String, String> filesToWrite = new TreeMap<>();
+        Set<String> excludedFiles = new TreeSet<>();
+        for (Map.Entry<String, String> file : headFiles.entrySet()) {
+            String fileName = file.getKey();
+            if (stagingArea.addition.containsKey(fileName) || stagingArea.removal.contains(fileName)) {
+                continue;
+            }
+            if (!sparse.includes(fileName)) {
+                if (filesInCWD.contains(fileName)) excludedFiles.add(fileName);
+            } else if (!filesInCWD.contains(fileName)) {
+                filesToWrite.put(fileName, file.getValue());
+            }
+        }
+
+        long start = System.nanoTime();
+        TreeScanner.checkout(CWD_PATH, filesToWrite);
+        Map<String, String> excludedIds = TreeScanner.hash(CWD_PATH, excludedFiles);
+        for (String fileName : excludedFiles) {
+            if (excludedIds.get(fileName).equals(headFiles.get(fileName))) {
+                restrictedDelete(CWD_PATH.resolve(fileName).toFile());
+            }
+        }
+        Main.timing("sparse-checkout: update files", start);
+    }
+
+    /**
+     * Print the sparse checkout patterns, one per line.
+     */
+    void printSparseCheckout() {
+        for (String pattern : SparseCheckout.load().patterns()) {
+            System.out.println(pattern);
+        }
+    }
+
     void reset(String cmtId) throws IOException {
         if (cmtId.length() < 40) {
             cmtId = getFullCmtId(cmtId);
         }
+        if (Commit.getCmt(cmtId) == null) throw new GitletException("No commit with that id exists.");
         checkUntrackedChange(cmtId);
-        if (!checkFileExist(COMMITS_DIR.resolve(cmtId))) throw new GitletException("No commit with that id exists.");
 
         checkoutFilesToCmt(cmtId);
 
@@ -571,20 +948,21 @@ public class Repository implements Serializable {
         Commit headCmt = Commit.getCmt(HEAD);
 
 
+        // Files in current CWD tracked by commit specified by cmdId
         Set<String> filesInCWD = new HashSet<>(plainFilenamesIn(CWD));
-        Set<String> filesTracked = cmt.getAll();
-
-        for (String fileName : filesTracked) {
-            if (filesInCWD.contains(fileName)) {
-                // Current CWD contains file tracked by commit specified by cmdId
-                String fileInCWDId = new Blob(CWD_PATH.resolve(fileName)).id;
-                String fileStagedId = stagingArea.addition.get(fileName);
-                String fileInHEADId = headCmt.get(fileName);
-                if (!fileInCWDId.equals(fileInHEADId) && !fileInCWDId.equals(fileStagedId)) {
-                    // if this file is not identical to either file in HEAD commit and Staging Area
-                    throw new GitletException("There is an untracked file in the way;" +
-                            " delete it, or add and commit it first.");
-                }
+        filesInCWD.retainAll(cmt.getAll());
+
+        long start = System.nanoTime();
+        Map<String, String> CWDIds = TreeScanner.hash(CWD_PATH, filesInCWD);
+        Main.timing("check untracked files", start);
+        for (String fileName : filesInCWD) {
+            String fileInCWDId = CWDIds.get(fileName);
+            String fileStagedId = stagingArea.addition.get(fileName);
+            String fileInHEADId = headCmt.get(fileName);
+            if (!fileInCWDId.equals(fileInHEADId) && !fileInCWDId.equals(fileStagedId)) {
+                // if this file is not identical to either file in HEAD commit and Staging Area
+                throw new GitletException("There is an untracked file in the way;" +
+                        " delete it, or add and commit it first.");
             }
         }
     }
@@ -605,15 +983,32 @@ public class Repository implements Serializable {
         branches.remove(name);
     }
 
+    /**
+     * Merge files from the head of branch `branchName` into the current branch and stage the result.
+     */
     boolean merge(String branchName) throws IOException {
-        String splitPoint = getSplitPointWithOtherBranch(branches.get(branchName));
-        if (splitPoint == null) return true;
+        String otherId = branches.get(branchName);
+        String splitPoint = CommitGraph.local().mergeBase(HEAD, otherId);
+        // Keep commits the graph had to load from the object store
+        CommitGraph.local().save();
+        if (otherId.equals(splitPoint)) {
+            System.out.println("Given branch is an ancestor of the current branch.");
+            return true;
+        }
+        if (HEAD.equals(splitPoint)) {
+            // If the split point is the current branch, then the effect is to check out the given branch
+            checkoutToBranch(branchName);
+            System.out.println("Current branch fast-forwarded.");
+            return true;
+        }
+
         Commit currBranchCmt = Commit.getCmt(HEAD);
-        Commit otherBranchCmt = Commit.getCmt(branches.get(branchName));
+        Commit otherBranchCmt = Commit.getCmt(otherId);
         Commit splitPointCmt = Commit.getCmt(splitPoint);
 
-        Set<String> currBranchFiles = currBranchCmt.getAll();
-        Set<String> otherBranchFiles = otherBranchCmt.getAll();
+        SparseCheckout sparse = SparseCheckout.load();
+        Set<String> currBranchFiles = new HashSet<>(currBranchCmt.getAll());
+        Set<String> otherBranchFiles = new HashSet<>(otherBranchCmt.getAll());
         Set<String> splitPointFiles = splitPointCmt.getAll();
         for (String fileName : splitPointFiles) {
             String fileInSplitId = splitPointCmt.get(fileName);
@@ -631,8 +1026,7 @@ public class Repository implements Serializable {
                     if (isOtherDeleted) {
                         remove(fileInCWD);
                     } else {
-                        checkout(fileName, otherBranchCmt.getId());
-                        add(fileInCWD);
+                        takeFile(fileName, fileInOtherId, sparse);
                     }
                 }
             } else {
@@ -644,7 +1038,7 @@ public class Repository implements Serializable {
                     if (Objects.equals(fileInCurrId, fileInOtherId)) {
                         // do nothing
                     } else {
-                        mergeFileConflict(fileInCurrId, fileInOtherId);
+                        mergeFile(fileName, fileInSplitId, fileInCurrId, fileInOtherId);
                     }
                 }
             }
@@ -658,10 +1052,10 @@ public class Repository implements Serializable {
             String fileInOtherId = otherBranchCmt.get(fileName);
             String fileInCurrId = currBranchCmt.get(fileName);
             if (fileInCurrId == null) {
-                // TODO check checkout has staging action
-                checkout(fileName, otherBranchCmt.getId());
+                takeFile(fileName, fileInOtherId, sparse);
             } else if (!fileInCurrId.equals(fileInOtherId)) {
-                mergeFileConflict(fileInCurrId, fileInOtherId);
+                // Added on both sides, merged as if added to an empty file
+                mergeFile(fileName, null, fileInCurrId, fileInOtherId);
             }
             currBranchFiles.remove(fileName);
         }
@@ -674,59 +1068,137 @@ public class Repository implements Serializable {
         return true;
     }
 
-    private void mergeFileConflict(String id1, String id2) {
-        // fileInCurrBlob as file In HEAD
-        Blob fileInCurrBlob = Blob.getBlob(id1);
-        Blob fileInOtherBlob = Blob.getBlob(id2);
-        String fileName = fileInCurrBlob == null ? fileInOtherBlob.fileName : fileInCurrBlob.fileName;
-        Blob mergedBlob = Blob.mergeConflict(fileName, fileInCurrBlob, fileInOtherBlob);
-        // saveToCWD(mergedBlob);
-        checkout(mergedBlob);
-        // add(fileInCWD);
-        add(CWD_PATH.resolve(mergedBlob.fileName));
-        // saveToStage(mergedBlob);
-    }
-
-    private String getSplitPointWithOtherBranch(String otherBranchName) throws IOException {
-        Commit currBranchCmt = Commit.getCmt(branches.get(currentBranch));
-        Commit otherBranchCmt = Commit.getCmt(branches.get(otherBranchName));
-
-        Set<String> trackCurr = new HashSet<>();
-        Set<String> trackOther = new HashSet<>();
-
-        String ret = null;
-        while (currBranchCmt != null || otherBranchCmt != null) {
-            String currId = currBranchCmt == null ? null : currBranchCmt.getId();
-            String otherId = otherBranchCmt == null ? null : otherBranchCmt.getId();
-
-            if (currId != null) trackCurr.add(currBranchCmt.getId());
-            if (otherId != null) trackOther.add(otherId);
-
-            if (trackCurr.contains(otherId)) {
-                if (otherId.equals(HEAD)) {
-                    // If the split point is the current branch,
-                    // then the effect is to check out the given branch
-                    checkoutToBranch(otherBranchName);
-                    System.out.println("Current branch fast-forwarded.");
-                    return null;
-                }
-                ret = otherId;
-                break;
-            }
+    /**
+     * Take version `blobId` of `fileName` from the other branch of a merge and stage it. A file outside
+     * the sparse checkout is only staged, unless a copy of it is in CWD.
+     */
+    private void takeFile(String fileName, String blobId, SparseCheckout sparse) {
+        Path file = CWD_PATH.resolve(fileName);
+        if (sparse.includes(fileName) || Files.exists(file)) {
+            TreeScanner.checkout(CWD_PATH, Map.of(fileName, blobId));
+            add(file);
+        } else {
+            stagingArea.addition.put(fileName, blobId);
+        }
+    }
 
-            if (trackOther.contains(currId)) {
-                if (currId.equals(branches.get(otherBranchName))) {
-                    // If the split point is the same commit as the given branch
-                    System.out.println("Given branch is an ancestor of the current branch.");
-                    return null;
-                }
-                ret = currId;
-                break;
+    /**
+     * Merge versions `currId` and `otherId` of `fileName` changed from version `splitId`, where ids of
+     * missing versions are null, write the result into CWD and stage it.
+     * Changes are merged line by line, see Merge3. A file deleted on one side and changed on the other
+     * is a conflict of whole files.
+     */
+    private void mergeFile(String fileName, String splitId, String currId, String otherId) throws IOException {
+        Path file = CWD_PATH.resolve(fileName);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+            if (currId == null || otherId == null) {
+                Merge3.conflict(contentsOf(currId), contentsOf(otherId), out);
+            } else {
+                Merge3.merge(contentsOf(splitId), contentsOf(currId), contentsOf(otherId), out);
             }
-            currBranchCmt = currBranchCmt == null ? null : Commit.getCmt(currBranchCmt.getParentId());
-            otherBranchCmt = otherBranchCmt == null ? null : Commit.getCmt(otherBranchCmt.getParentId());
         }
-        return ret;
+        add(file);
+    }
+
+    private static byte[] contentsOf(String blobId) {
+        return blobId == null ? new byte[0] : Blob.getBlob(blobId).contents;
+    }
+
+    /* RELATED TO REMOTES */
+
+    void addRemote(String name, String path) {
+        Remote.add(name, path);
+    }
+
+    void removeRemote(String name) {
+        Remote.remove(name);
+    }
+
+    /**
+     * Copy the commits of branch `remoteBranch` of remote `remoteName` that are missing here,
+     * and point branch `remoteName`/`remoteBranch` to its head, see Remote.
+     */
+    void fetch(String remoteName, String remoteBranch) {
+        Remote remote = Remote.get(remoteName);
+        String want = loadState(remote.gitletDir).branches.get(remoteBranch);
+        if (want == null) {
+            throw new GitletException("That remote does not have that branch.");
+        }
+        long start = System.nanoTime();
+        List<Commit> commits;
+        try (ObjectStore source = remote.store()) {
+            commits = Remote.transfer(source, ObjectStore.local(), want);
+        }
+        Main.timing(String.format("fetch: transfer %d commits", commits.size()), start);
+        for (Commit cmt : commits) {
+            CommitGraph.local().add(cmt);
+            CommitIndex.local().add(cmt);
+        }
+        CommitGraph.local().save();
+        branches.put(remoteName + "/" + remoteBranch, want);
+    }
+
+    /**
+     * Copy the commits of HEAD that are missing from remote `remoteName`, and point its branch `remoteBranch`,
+     * created if needed, to HEAD. The head of that branch must be in the history of HEAD.
+     * If it is the current branch of the remote, the HEAD of the remote moves too, but its working files are left as they are.
+     */
+    void push(String remoteName, String remoteBranch) {
+        Remote remote = Remote.get(remoteName);
+        Repository remoteRepo = loadState(remote.gitletDir);
+        String remoteHead = remoteRepo.branches.get(remoteBranch);
+        if (remoteHead != null && (Commit.getCmt(remoteHead) == null
+                || !CommitGraph.local().isAncestor(remoteHead, HEAD))) {
+            throw new GitletException("Please pull down remote changes before pushing.");
+        }
+        long start = System.nanoTime();
+        List<Commit> commits;
+        try (ObjectStore target = remote.store()) {
+            commits = Remote.transfer(ObjectStore.local(), target, HEAD);
+        }
+        Main.timing(String.format("push: transfer %d commits", commits.size()), start);
+        // A remote without commit graph or commit index builds them from all commits when it needs them
+        CommitGraph graph = CommitGraph.open(remote.gitletDir);
+        CommitIndex index = CommitIndex.open(remote.gitletDir);
+        for (Commit cmt : commits) {
+            if (graph != null) graph.add(cmt);
+            if (index != null) index.add(cmt);
+        }
+        if (graph != null) graph.save();
+
+        remoteRepo.branches.put(remoteBranch, HEAD);
+        if (remoteBranch.equals(remoteRepo.currentBranch)) {
+            remoteRepo.HEAD = HEAD;
+        }
+        saveState(remoteRepo, remote.gitletDir);
+    }
+
+    /**
+     * Fetch branch `remoteBranch` of remote `remoteName`, then merge it into the current branch.
+     */
+    void pull(String remoteName, String remoteBranch) throws IOException {
+        fetch(remoteName, remoteBranch);
+        merge(remoteName + "/" + remoteBranch);
+    }
+
+    /* RELATED TO REPACK */
+
+    /**
+     * Fold loose blobs and commits into a single pack, see ObjectStore.repack,
+     * and sort the commits appended to the commit graph into it, see CommitGraph.compact
+     */
+    void repack() throws IOException {
+        ObjectStore.local().repack();
+        CommitGraph.local().compact();
+    }
+
+    /**
+     * Delete objects not reachable from branches, HEAD or the staging area, see GarbageCollector.
+     */
+    void gc(long gracePeriod) throws IOException {
+        Set<String> heads = new TreeSet<>(branches.values());
+        heads.add(HEAD);
+        GarbageCollector.collect(heads, stagingArea.addition.values(), gracePeriod);
     }
 
     /* UTILITIES RELATED TO REPOSITORY */
@@ -740,13 +1212,11 @@ public class Repository implements Serializable {
         }
     }
 
+    /**
+     * Return id of the commit whose id starts with `abbreviate`, or null if there is none.
+     * Throw GitletException if several commits match.
+     */
     static String getFullCmtId(String abbreviate) {
-        List<String> fileNames = plainFilenamesIn(COMMITS_DIR);
-        for (String fileName : fileNames) {
-            if (fileName.contains(abbreviate)) {
-                return fileName;
-            }
-        }
-        return null;
+        return CommitGraph.local().resolve(abbreviate);
     }
 }
@@ -0,0 +1,101 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Patterns of a sparse checkout, limiting which tracked files are written into the working directory.
+ * They are globs matched against file names, as for `gitlet add`, kept one per line in .gitlet/sparse-checkout.
+ * Without that file every file is written.
+ * <p>
+ * Files outside the patterns stay tracked: commits keep their blobs, status and diff do not report
+ * them as deleted, and checkout, reset and merge do not write them, removing copies left unchanged
+ * in the working directory.
+ *
+ * @author Louis Lu
+ */
+class SparseCheckout {
+
+    static final String SPARSE_FILE_NAME = "sparse-checkout";
+
+    private final List<String> patterns;
+    private final List<PathMatcher> matchers = new ArrayList<>();
+
+    private SparseCheckout(List<String> patterns) {
+        this.patterns = Collections.unmodifiableList(patterns);
+        for (String pattern : patterns) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+    }
+
+    /**
+     * Read the patterns of the repository in CWD.
+     */
+    static SparseCheckout load() {
+        Path file = sparseFile();
+        if (!Files.exists(file)) {
+            return new SparseCheckout(new ArrayList<>());
+        }
+        List<String> patterns = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    patterns.add(line.strip());
+                }
+            }
+        } catch (IOException e) {
+            throw error("Cannot read %s.", SPARSE_FILE_NAME);
+        }
+        return new SparseCheckout(patterns);
+    }
+
+    /**
+     * Replace the patterns of the repository in CWD by `patterns`; none disables sparse checkout.
+     */
+    static SparseCheckout save(List<String> patterns) {
+        try {
+            if (patterns.isEmpty()) {
+                Files.deleteIfExists(sparseFile());
+            } else {
+                writeAtomically(sparseFile(), (String.join("\n", patterns) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw error("Cannot write %s.", SPARSE_FILE_NAME);
+        }
+        return new SparseCheckout(new ArrayList<>(patterns));
+    }
+
+    boolean isEnabled() {
+        return !patterns.isEmpty();
+    }
+
+    List<String> patterns() {
+        return patterns;
+    }
+
+    /**
+     * Return true if file `fileName` is to be written into the working directory.
+     */
+    boolean includes(String fileName) {
+        if (patterns.isEmpty()) return true;
+        Path name = Paths.get(fileName);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(name)) return true;
+        }
+        return false;
+    }
+
+    private static Path sparseFile() {
+        return Repository.GITLET_DIR.resolve(SPARSE_FILE_NAME);
+    }
+}
@@ -0,0 +1,201 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/**
+ * Index of the working directory, kept in .gitlet/index: for each file whose blob id is known,
+ * its size, modification time and inode when it was hashed. A file whose stat data did not change
+ * since is not read and hashed again.
+ * <p>
+ * A file modified within the timestamp granularity of the moment the index was written may look
+ * unchanged while its contents changed, so entries not older than the index file are always rehashed.
+ * <p>
+ * The file is a Codec header, the number of entries (varint), and for each entry, in order of names:
+ * file name (string) | size (varint) | modification time in nanoseconds (varint) | inode (varint) | blob id (hash)
+ * <p>
+ * Files may be looked up and recorded from several threads at once, see TreeScanner.
+ *
+ * @author Louis Lu
+ */
+class StatIndex {
+
+    static final String INDEX_FILE_NAME = "index";
+
+    private static final int VERSION = 1;
+
+    private static StatIndex local;
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Modification time of the index file when it was read, in nanoseconds.
+     */
+    private long indexTime = Long.MIN_VALUE;
+    private volatile boolean dirty;
+
+    private static class Entry {
+        final long size;
+        final long mtime;
+        final long inode;
+        final String id;
+
+        Entry(long size, long mtime, long inode, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        boolean matches(Entry stat) {
+            return size == stat.size && mtime == stat.mtime && inode == stat.inode;
+        }
+    }
+
+    private StatIndex(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * The index of the repository in CWD.
+     */
+    static synchronized StatIndex local() {
+        if (local == null) {
+            local = new StatIndex(Repository.GITLET_DIR.resolve(INDEX_FILE_NAME));
+            local.read();
+        }
+        return local;
+    }
+
+    /**
+     * Drop the index held in memory, so that the next call of local() reads the file again.
+     */
+    static synchronized void unload() {
+        local = null;
+    }
+
+    /**
+     * Save the index of the repository in CWD if it was used and changed.
+     */
+    static void flush() {
+        if (local != null) {
+            local.save();
+        }
+    }
+
+    /**
+     * Return the id of the blob of `file`, hashing it only if it changed since it was last hashed.
+     */
+    String blobId(Path file) {
+        String name = file.getFileName().toString();
+        Entry stat = stat(file, null);
+        if (isUnchanged(entries.get(name), stat)) {
+            return entries.get(name).id;
+        }
+        String id = Blob.hash(file);
+        record(name, stat, id);
+        return id;
+    }
+
+    /**
+     * Return the blob id recorded for `file` if it did not change since it was hashed,
+     * or null if it has to be read.
+     */
+    String cachedId(Path file) {
+        Entry entry = entries.get(file.getFileName().toString());
+        if (entry == null) return null;
+        return isUnchanged(entry, stat(file, null)) ? entry.id : null;
+    }
+
+    private boolean isUnchanged(Entry entry, Entry stat) {
+        return entry != null && entry.matches(stat) && entry.mtime < indexTime;
+    }
+
+    /**
+     * Record that `file`, as it is now, has blob id `id`, as after adding or checking it out.
+     */
+    void update(Path file, String id) {
+        record(file.getFileName().toString(), stat(file, id), id);
+    }
+
+    /**
+     * Forget files whose names are not in `names`.
+     */
+    synchronized void retainOnly(Collection<String> names) {
+        dirty |= entries.keySet().retainAll(names);
+    }
+
+    synchronized void save() {
+        if (!dirty) return;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Codec.Writer writer = new Codec.Writer(out).header(Codec.INDEX, VERSION).varint(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.string(e.getKey()).varint(entry.size).varint(entry.mtime).varint(entry.inode).hash(entry.id);
+            }
+            Path tempFile = Files.createTempFile(file.getParent(), INDEX_FILE_NAME, null);
+            Files.write(tempFile, out.toByteArray());
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // As if read again, for a process using the index for several commands
+            indexTime = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            throw error("Cannot write %s.", INDEX_FILE_NAME);
+        }
+        dirty = false;
+    }
+
+    private void read() {
+        if (!checkFileExist(file)) return;
+        try {
+            indexTime = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+            Codec.Reader reader = new Codec.Reader(new ByteArrayInputStream(Files.readAllBytes(file)));
+            reader.header(Codec.INDEX, VERSION);
+            for (int i = reader.varintAsInt(); i > 0; i -= 1) {
+                String name = reader.string();
+                entries.put(name, new Entry(reader.varint(), reader.varint(), reader.varint(), reader.hash()));
+            }
+        } catch (IOException | GitletException e) {
+            // The index is only a cache, start over from an empty one
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    private void record(String name, Entry stat, String id) {
+        entries.put(name, new Entry(stat.size, stat.mtime, stat.inode, id));
+        dirty = true;
+    }
+
+    /**
+     * Return stat data of `file` as an entry with blob id `id`.
+     */
+    private static Entry stat(Path file, String id) {
+        try {
+            long inode = 0;
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            try {
+                inode = ((Number) Files.getAttribute(file, "unix:ino")).longValue();
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // No inode on this file system, size and modification time are used alone
+            }
+            FileTime mtime = attrs.lastModifiedTime();
+            return new Entry(attrs.size(), mtime.to(TimeUnit.NANOSECONDS), inode, id);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static gitlet.Utils.*;
+
+/**
+ * The files of a commit: an immutable hash array mapped trie from file names to blob ids,
+ * stored as content-addressed tree objects. A name is placed by the SHA-1 of the name,
+ * 5 bits of it at each level. A node holding at most MAX_LEAF files is a leaf listing them,
+ * a larger one is a branch with up to 32 children, so the shape of a tree only depends on its files
+ * and equal subtrees have equal ids.
+ * <p>
+ * Changing a file copies only the nodes on the path to it, the rest is shared with the original tree,
+ * and saving a tree only writes nodes that are not stored yet. So a commit costs storage
+ * proportional to the files it changes, not to the number of files it tracks.
+ * Children of a node read from the object store are read when first needed.
+ * <p>
+ * A node is encoded with Codec as one of:
+ * - leaf:   0 (varint) | number of files (varint) | for each file, in order of names: name (string) | blob id (hash)
+ * - branch: 1 (varint) | number of files below (varint) | bitmap of non-empty children (varint) | child ids (hash)...
+ *
+ * @author Louis Lu
+ */
+class Tree {
+
+    static final Tree EMPTY = new Tree(new TreeMap<>());
+
+    private static final int BITS = 5;
+    private static final int FANOUT = 1 << BITS;
+    private static final int MAX_LEAF = 128;
+    /**
+     * Nodes at this depth use all 160 bits of the hash of names, they are leaves whatever their size.
+     */
+    private static final int MAX_DEPTH = UID_LENGTH * 4 / BITS - 1;
+
+    private static final int VERSION = 1;
+    private static final int LEAF = 0;
+    private static final int BRANCH = 1;
+
+    /**
+     * Tree nodes read in this process.
+     */
+    private static final ObjectCache<Tree> CACHE = new ObjectCache<>("tree", 16 << 20, Tree::estimatedSize);
+
+    /**
+     * Id of this node, null until computed by id().
+     */
+    private String id;
+    /**
+     * True if this node and all nodes below are in the object store.
+     */
+    private boolean saved;
+    private final int size;
+
+    /* LEAF */
+
+    private final TreeMap<String, String> files;
+
+    /* BRANCH */
+
+    /**
+     * Ids of children, null for empty children and for new ones until id() is computed.
+     */
+    private final String[] childIds;
+    /**
+     * Children, null for empty children and for stored ones until they are read.
+     */
+    private final Tree[] children;
+
+    private Tree(TreeMap<String, String> files) {
+        this.files = files;
+        this.size = files.size();
+        this.childIds = null;
+        this.children = null;
+    }
+
+    private Tree(int size, String[] childIds, Tree[] children) {
+        this.files = null;
+        this.size = size;
+        this.childIds = childIds;
+        this.children = children;
+    }
+
+    /**
+     * Return a tree of all `files`, a mapping of file names to blob ids.
+     */
+    static Tree of(Map<String, String> files) {
+        return build(new TreeMap<>(files), 0);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return blob id of file `name`, or null if the tree does not contain it.
+     */
+    String get(String name) {
+        byte[] hash = hashName(name);
+        Tree node = this;
+        for (int depth = 0; !node.isLeaf(); depth += 1) {
+            node = node.child(slot(hash, depth));
+            if (node == null) return null;
+        }
+        return node.files.get(name);
+    }
+
+    /**
+     * Return a tree with file `name` mapped to `blobId`, sharing all other nodes with this one.
+     */
+    Tree put(String name, String blobId) {
+        return put(hashName(name), 0, name, blobId);
+    }
+
+    /**
+     * Return a tree without file `name`, sharing all other nodes with this one.
+     */
+    Tree remove(String name) {
+        return remove(hashName(name), 0, name);
+    }
+
+    /**
+     * Pass every file name and blob id to `action`, reading the whole tree.
+     */
+    void forEach(BiConsumer<String, String> action) {
+        if (isLeaf()) {
+            files.forEach(action);
+            return;
+        }
+        for (int i = 0; i < FANOUT; i += 1) {
+            Tree child = child(i);
+            if (child != null) child.forEach(action);
+        }
+    }
+
+    /**
+     * Return a mapping of all file names to blob ids, in order of names.
+     */
+    TreeMap<String, String> toMap() {
+        TreeMap<String, String> map = new TreeMap<>();
+        forEach(map::put);
+        return map;
+    }
+
+    /**
+     * Id of the root node, computed without storing anything.
+     */
+    String id() {
+        if (id == null) {
+            id = sha1((Object) encode());
+        }
+        return id;
+    }
+
+    /**
+     * Store the nodes of this tree that are not stored yet.
+     */
+    void save() {
+        if (saved) return;
+        if (!isLeaf()) {
+            for (Tree child : children) {
+                if (child != null) child.save();
+            }
+        }
+        byte[] encoded = encode();
+        if (id == null) {
+            id = sha1((Object) encoded);
+        }
+        ObjectStore.local().write(ObjectStore.Type.TREE, id, encoded);
+        CACHE.put(id, this);
+        saved = true;
+    }
+
+    /**
+     * Return the tree `id` from the object store.
+     */
+    static Tree load(String id) {
+        Tree tree = CACHE.get(id);
+        if (tree != null) return tree;
+        byte[] contents = ObjectStore.local().read(ObjectStore.Type.TREE, id);
+        if (contents == null) {
+            throw error("Missing tree %s.", id);
+        }
+        tree = decode(contents);
+        tree.id = id;
+        tree.saved = true;
+        CACHE.put(id, tree);
+        return tree;
+    }
+
+    /**
+     * Pass the ids of the children of the stored node `encoded` to `trees`, or the blob ids of its files
+     * to `blobs` if it is a leaf. This walks nodes of another repository without loading them into the cache.
+     */
+    static void forEachReference(byte[] encoded, Consumer<String> trees, Consumer<String> blobs) {
+        Tree node = decode(encoded);
+        if (node.isLeaf()) {
+            node.files.values().forEach(blobs);
+            return;
+        }
+        for (String childId : node.childIds) {
+            if (childId != null) trees.accept(childId);
+        }
+    }
+
+    /* OPERATIONS ON NODES */
+
+    private boolean isLeaf() {
+        return files != null;
+    }
+
+    private Tree child(int slot) {
+        if (children[slot] == null && childIds[slot] != null) {
+            children[slot] = load(childIds[slot]);
+        }
+        return children[slot];
+    }
+
+    private Tree put(byte[] hash, int depth, String name, String blobId) {
+        if (isLeaf()) {
+            if (blobId.equals(files.get(name))) return this;
+            TreeMap<String, String> newFiles = new TreeMap<>(files);
+            newFiles.put(name, blobId);
+            return build(newFiles, depth);
+        }
+        int slot = slot(hash, depth);
+        Tree child = child(slot);
+        Tree newChild = (child == null ? EMPTY : child).put(hash, depth + 1, name, blobId);
+        if (newChild == child) return this;
+        return withChild(slot, newChild, size - (child == null ? 0 : child.size) + newChild.size);
+    }
+
+    private Tree remove(byte[] hash, int depth, String name) {
+        if (isLeaf()) {
+            if (!files.containsKey(name)) return this;
+            TreeMap<String, String> newFiles = new TreeMap<>(files);
+            newFiles.remove(name);
+            return new Tree(newFiles);
+        }
+        int slot = slot(hash, depth);
+        Tree child = child(slot);
+        if (child == null) return this;
+        Tree newChild = child.remove(hash, depth + 1, name);
+        if (newChild == child) return this;
+        if (size - 1 <= MAX_LEAF) {
+            // Few enough files left to fold this branch back into a leaf
+            TreeMap<String, String> newFiles = toMap();
+            newFiles.remove(name);
+            return new Tree(newFiles);
+        }
+        return withChild(slot, newChild.size == 0 ? null : newChild, size - 1);
+    }
+
+    private Tree withChild(int slot, Tree child, int newSize) {
+        String[] newChildIds = Arrays.copyOf(childIds, FANOUT);
+        Tree[] newChildren = Arrays.copyOf(children, FANOUT);
+        newChildIds[slot] = null;
+        newChildren[slot] = child;
+        return new Tree(newSize, newChildIds, newChildren);
+    }
+
+    /**
+     * Return the node at `depth` holding `files`.
+     */
+    private static Tree build(TreeMap<String, String> files, int depth) {
+        if (files.size() <= MAX_LEAF || depth == MAX_DEPTH) {
+            return new Tree(files);
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        TreeMap<String, String>[] parts = new TreeMap[FANOUT];
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            int slot = slot(hashName(file.getKey()), depth);
+            if (parts[slot] == null) parts[slot] = new TreeMap<>();
+            parts[slot].put(file.getKey(), file.getValue());
+        }
+        Tree[] children = new Tree[FANOUT];
+        for (int i = 0; i < FANOUT; i += 1) {
+            if (parts[i] != null) children[i] = build(parts[i], depth + 1);
+        }
+        return new Tree(files.size(), new String[FANOUT], children);
+    }
+
+    /**
+     * Index of the child at `depth` for a name whose SHA-1 is `hash`.
+     */
+    private static int slot(byte[] hash, int depth) {
+        int bit = depth * BITS;
+        int twoBytes = (hash[bit / 8] & 0xff) << 8;
+        if (bit / 8 + 1 < hash.length) {
+            twoBytes |= hash[bit / 8 + 1] & 0xff;
+        }
+        return (twoBytes >>> (16 - BITS - bit % 8)) & (FANOUT - 1);
+    }
+
+    private static byte[] hashName(String name) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(name.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private long estimatedSize() {
+        return isLeaf() ? 100 + 160L * files.size() : 100 + 8L * FANOUT;
+    }
+
+    /* ENCODING */
+
+    /**
+     * Return the encoded nodes of this tree, children before their parents, as save() stores them.
+     * Only nodes held in memory are encoded, so this is meant for a tree built by of(), see CodecBenchmark.
+     */
+    List<byte[]> encodeNodes() {
+        List<byte[]> nodes = new ArrayList<>();
+        if (!isLeaf()) {
+            for (Tree child : children) {
+                if (child != null) nodes.addAll(child.encodeNodes());
+            }
+        }
+        nodes.add(encode());
+        return nodes;
+    }
+
+    private byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            Codec.Writer writer = new Codec.Writer(out).header(Codec.TREE, VERSION);
+            if (isLeaf()) {
+                writer.varint(LEAF).varint(files.size());
+                for (Map.Entry<String, String> file : files.entrySet()) {
+                    writer.string(file.getKey()).hash(file.getValue());
+                }
+                return out.toByteArray();
+            }
+            long bitmap = 0;
+            for (int i = 0; i < FANOUT; i += 1) {
+                if (children[i] != null || childIds[i] != null) bitmap |= 1L << i;
+            }
+            writer.varint(BRANCH).varint(size).varint(bitmap);
+            for (int i = 0; i < FANOUT; i += 1) {
+                if (childIds[i] == null && children[i] != null) {
+                    childIds[i] = children[i].id();
+                }
+                if (childIds[i] != null) writer.hash(childIds[i]);
+            }
+        } catch (IOException e) {
+            throw error("Internal error encoding tree.");
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the node `encoded`, whose children are read when first needed.
+     */
+    static Tree decode(byte[] encoded) {
+        Codec.Reader reader = new Codec.Reader(new ByteArrayInputStream(encoded));
+        try {
+            reader.header(Codec.TREE, VERSION);
+            if (reader.varint() == LEAF) {
+                TreeMap<String, String> files = new TreeMap<>();
+                for (int i = reader.varintAsInt(); i > 0; i -= 1) {
+                    files.put(reader.string(), reader.hash());
+                }
+                return new Tree(files);
+            }
+            int size = reader.varintAsInt();
+            long bitmap = reader.varint();
+            String[] childIds = new String[FANOUT];
+            for (int i = 0; i < FANOUT; i += 1) {
+                if ((bitmap & (1L << i)) != 0) childIds[i] = reader.hash();
+            }
+            return new Tree(size, childIds, new Tree[FANOUT]);
+        } catch (IOException e) {
+            throw error("Corrupted tree.");
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package gitlet;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Stats, hashes and writes working files on a fork-join pool, so that reading one file
+ * does not wait for the previous one. The number of threads is set by option --jobs=N,
+ * it defaults to the number of processors.
+ * Every file goes through StatIndex, so files unchanged since they were last hashed are not read.
+ *
+ * @author Louis Lu
+ */
+class TreeScanner {
+
+    static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    static int parallelism = DEFAULT_PARALLELISM;
+
+    /**
+     * Smallest number of new blobs stored as a pack rather than as loose files.
+     */
+    static final int PACK_THRESHOLD = 256;
+
+    private static ForkJoinPool pool;
+
+    private TreeScanner() {
+    }
+
+    /**
+     * Return mapping of `names` of files in `dir` to their blob ids.
+     */
+    static Map<String, String> hash(Path dir, Collection<String> names) {
+        StatIndex index = StatIndex.local();
+        return forEach(names, name -> index.blobId(dir.resolve(name)));
+    }
+
+    /**
+     * Like hash(), also storing blobs of the files that are missing from the object store.
+     * Only files unchanged since they were last hashed are looked up by their recorded ids, the others
+     * are read once, hashed and compressed in the same pass, and dropped if their blobs turn out to be stored.
+     * When at least PACK_THRESHOLD files are read, the small ones are stored into a single new pack,
+     * see Blob.storePacked.
+     */
+    static Map<String, String> store(Path dir, Collection<String> names) {
+        StatIndex index = StatIndex.local();
+        ObjectStore store = ObjectStore.local();
+        Map<String, Optional<String>> known = forEach(names, name -> {
+            String id = index.cachedId(dir.resolve(name));
+            return Optional.ofNullable(id).filter(blobId -> store.contains(ObjectStore.Type.BLOB, blobId));
+        });
+        Map<String, String> ids = new TreeMap<>();
+        List<String> missing = new ArrayList<>();
+        for (Map.Entry<String, Optional<String>> file : known.entrySet()) {
+            if (file.getValue().isPresent()) {
+                ids.put(file.getKey(), file.getValue().get());
+            } else {
+                missing.add(file.getKey());
+            }
+        }
+        if (missing.size() >= PACK_THRESHOLD) {
+            List<String> small = new ArrayList<>();
+            List<String> large = new ArrayList<>();
+            for (String name : missing) {
+                if (dir.resolve(name).toFile().length() <= Blob.MAX_PACKED_SIZE) {
+                    small.add(name);
+                } else {
+                    large.add(name);
+                }
+            }
+            ids.putAll(Blob.storePacked(dir, small));
+            missing = large;
+        }
+        ids.putAll(forEach(missing, name -> {
+            Path file = dir.resolve(name);
+            String id = Blob.store(file);
+            index.update(file, id);
+            return id;
+        }));
+        return ids;
+    }
+
+    /**
+     * Write `files`, a mapping of file names to blob ids, into `dir`, return the number of files written.
+     * A file that already has its blob id in `files` is left alone, so that switching between
+     * commits only writes the files that differ.
+     */
+    static int checkout(Path dir, Map<String, String> files) {
+        StatIndex index = StatIndex.local();
+        Map<String, Boolean> written = forEach(files.keySet(), name -> {
+            Path file = dir.resolve(name);
+            String id = files.get(name);
+            if (Files.isRegularFile(file) && id.equals(index.blobId(file))) {
+                return false;
+            }
+            Blob.writeTo(id, file);
+            index.update(file, id);
+            return true;
+        });
+        return Collections.frequency(written.values(), true);
+    }
+
+    /**
+     * Apply `action` to all `names` in parallel, return mapping of names to results in order of names.
+     */
+    static <T> Map<String, T> forEach(Collection<String> names, Function<String, T> action) {
+        if (names.size() < 2 || parallelism < 2) {
+            Map<String, T> results = new TreeMap<>();
+            for (String name : names) {
+                results.put(name, action.apply(name));
+            }
+            return results;
+        }
+        return run(() -> names.parallelStream().collect(
+                Collectors.toMap(name -> name, action, (a, b) -> a, TreeMap::new)));
+    }
+
+    /**
+     * Run `task` in the pool, rethrowing whatever it throws.
+     */
+    private static <T> T run(Callable<T> task) {
+        synchronized (TreeScanner.class) {
+            if (pool == null || pool.getParallelism() != parallelism) {
+                if (pool != null) pool.shutdown();
+                pool = new ForkJoinPool(parallelism);
+            }
+        }
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitletException("Interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new GitletException(e.getCause().getMessage());
+        }
+    }
+}
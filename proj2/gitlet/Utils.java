@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -9,14 +10,17 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -57,11 +61,7 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return bytesToHex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
@@ -75,6 +75,40 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /**
+     * Returns the hexadecimal numeral of BYTES, such as a SHA-1 digest.
+     */
+    static String bytesToHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Returns the UID_LENGTH / 2 raw bytes of the complete SHA-1 UID ID,
+     * or null if ID is not a complete UID.
+     */
+    static byte[] hexToBytes(String id) {
+        if (id == null || id.length() != UID_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < bytes.length; i += 1) {
+            int hi = Character.digit(id.charAt(2 * i), 16);
+            int lo = Character.digit(id.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
     /* FILE DELETION */
 
     /**
@@ -162,6 +196,48 @@ class Utils {
         }
     }
 
+    /**
+     * Replace FILE by CONTENTS so that after a crash FILE holds either its old
+     * or its new contents: CONTENTS are written to a temporary file in the same
+     * directory and synced to disk, which is then renamed over FILE.
+     * Throws IllegalArgumentException in case of problems.
+     */
+    static void writeAtomically(Path file, byte[] contents) {
+        try {
+            Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), null);
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(contents);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            force(file.getParent());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Sync FILE, a regular file or a directory, to disk. Directories are synced
+     * so that files created or renamed in them survive a crash, on systems
+     * that cannot open directories this is skipped.
+     */
+    static void force(Path file) throws IOException {
+        if (Files.isDirectory(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                // Directories cannot be opened on Windows, where renames are durable anyway
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
     /**
      * Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      * Throws IllegalArgumentException in case of problems.
@@ -272,6 +348,21 @@ class Utils {
         }
     }
 
+    /**
+     * Return an object of type T deserialized from BYTES, casting it to
+     * EXPECTEDCLASS. Throws IllegalArgumentException in case of problems.
+     */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try (ObjectInputStream in =
+                     new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /**